@@ -0,0 +1,361 @@
+package global;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pivxj.core.Address;
+import org.pivxj.core.Coin;
+import org.pivxj.core.Context;
+import org.pivxj.core.ECKey;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Sha256Hash;
+import org.pivxj.core.Transaction;
+import org.pivxj.core.TransactionInput;
+import org.pivxj.core.TransactionOutPoint;
+import org.pivxj.core.TransactionOutput;
+import org.pivxj.crypto.MnemonicCode;
+import org.pivxj.params.TestNet3Params;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import global.store.ContactsStoreDao;
+import global.wrappers.TransactionWrapper;
+
+/**
+ * Transactions list of the wallet screen over a wallet with received and sent transactions,
+ * the sent ones spend a previous received output and return the change.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class N8VModuleImpBenchmark {
+
+    private static final NetworkParameters PARAMS = TestNet3Params.get();
+    private static final Context CONTEXT = new Context(PARAMS);
+    /** Receive addresses used by the wallet transactions */
+    private static final int RECEIVE_ADDRESSES = 20;
+
+    @Param({"100", "1000"})
+    public int transactions;
+
+    private File dir;
+    private N8VModuleImp module;
+
+    @Setup
+    public void setUp() throws Exception {
+        Context.propagate(CONTEXT);
+        dir = Files.createTempDirectory("n8v-benchmark").toFile();
+        MemoryContactsStore contacts = new MemoryContactsStore();
+        module = new N8VModuleImp(new DirContextWrapper(dir), new BenchmarkConfiguration(), contacts, null, null);
+        module.start();
+
+        List<Address> receiveAddresses = new ArrayList<>(RECEIVE_ADDRESSES);
+        for (int i = 0; i < RECEIVE_ADDRESSES; i++) {
+            Address address = module.getFreshNewAddress();
+            receiveAddresses.add(address);
+            contacts.put(address.toBase58(), new AddressLabel("receive " + i, null, true));
+        }
+        Address foreign = new ECKey().toAddress(PARAMS);
+        contacts.put(foreign.toBase58(), new AddressLabel("contact"));
+
+        List<TransactionOutput> unspent = new ArrayList<>();
+        for (int i = 0; i < transactions; i++) {
+            Address address = receiveAddresses.get(i % RECEIVE_ADDRESSES);
+            Transaction tx = new Transaction(PARAMS);
+            if (i % 4 == 3 && !unspent.isEmpty()) {
+                // sent, spends a received output
+                TransactionOutput spent = unspent.remove(0);
+                tx.addInput(spent);
+                tx.addOutput(Coin.valueOf(spent.getValue().value / 2), foreign);
+                unspent.add(tx.addOutput(Coin.valueOf(spent.getValue().value / 4), address));
+            } else {
+                tx.addInput(new TransactionInput(PARAMS, tx, new byte[0], new TransactionOutPoint(PARAMS, i, Sha256Hash.ZERO_HASH)));
+                unspent.add(tx.addOutput(Coin.COIN, address));
+                tx.addOutput(Coin.CENT, foreign);
+            }
+            module.commitTx(tx);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<TransactionWrapper> listTx() {
+        return module.listTx();
+    }
+
+    /**
+     * Files on a temporary directory, the mnemonic word list from the library.
+     */
+    private static class DirContextWrapper implements ContextWrapper {
+
+        private final File dir;
+
+        DirContextWrapper(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public FileOutputStream openFileOutputPrivateMode(String name) throws IOException {
+            return new FileOutputStream(new File(dir, name));
+        }
+
+        @Override
+        public FileOutputStream openFileOutput(String name, int mode) throws IOException {
+            return openFileOutputPrivateMode(name);
+        }
+
+        @Override
+        public FileInputStream openFileInput(String name) throws IOException {
+            return new FileInputStream(new File(dir, name));
+        }
+
+        @Override
+        public File getFileStreamPath(String name) throws IOException {
+            return new File(dir, name);
+        }
+
+        @Override
+        public File getDir(String name, int mode) {
+            return dir;
+        }
+
+        @Override
+        public File getDirPrivateMode(String name) {
+            return dir;
+        }
+
+        @Override
+        public InputStream openAssestsStream(String name) throws IOException {
+            return MnemonicCode.class.getResourceAsStream("mnemonic/wordlist/english.txt");
+        }
+
+        @Override
+        public String getPackageName() {
+            return "global.benchmark";
+        }
+
+        @Override
+        public boolean isMemoryLow() {
+            return false;
+        }
+
+        @Override
+        public String getVersionName() {
+            return "benchmark";
+        }
+
+        @Override
+        public void stopBlockchain() {
+
+        }
+
+        @Override
+        public int getCurrentVersionNumber() {
+            return 0;
+        }
+    }
+
+    private static class BenchmarkConfiguration implements WalletConfiguration {
+
+        @Override
+        public int getTrustedNodePort() {
+            return 0;
+        }
+
+        @Override
+        public String getTrustedNodeHost() {
+            return null;
+        }
+
+        @Override
+        public void saveTrustedNode(String host, int port) {
+
+        }
+
+        @Override
+        public void saveScheduleBlockchainService(long time) {
+
+        }
+
+        @Override
+        public long getScheduledBLockchainService() {
+            return 0;
+        }
+
+        @Override
+        public String getMnemonicFilename() {
+            return "english.txt";
+        }
+
+        @Override
+        public String getWalletProtobufFilename() {
+            return "wallet.dat";
+        }
+
+        @Override
+        public NetworkParameters getNetworkParams() {
+            return PARAMS;
+        }
+
+        @Override
+        public String getKeyBackupProtobuf() {
+            return "key_backup.dat";
+        }
+
+        @Override
+        public long getWalletAutosaveDelayMs() {
+            return 5000;
+        }
+
+        @Override
+        public Context getWalletContext() {
+            return CONTEXT;
+        }
+
+        @Override
+        public String getBlockchainFilename() {
+            return null;
+        }
+
+        @Override
+        public String getCheckpointFilename() {
+            return null;
+        }
+
+        @Override
+        public int getPeerTimeoutMs() {
+            return 0;
+        }
+
+        @Override
+        public long getPeerDiscoveryTimeoutMs() {
+            return 0;
+        }
+
+        @Override
+        public int getMinMemoryNeeded() {
+            return 0;
+        }
+
+        @Override
+        public long getBackupMaxChars() {
+            return 0;
+        }
+
+        @Override
+        public boolean isTest() {
+            return true;
+        }
+
+        @Override
+        public int getProtocolVersion() {
+            return 0;
+        }
+    }
+
+    /**
+     * Address labels by address, only the lookups are used.
+     */
+    private static class MemoryContactsStore implements ContactsStoreDao<AddressLabel> {
+
+        private final Map<String, AddressLabel> labels = new ConcurrentHashMap<>();
+
+        void put(String address, AddressLabel label) {
+            label.addAddress(address);
+            labels.put(address, label);
+        }
+
+        @Override
+        public AddressLabel getContact(String address) {
+            return labels.get(address);
+        }
+
+        @Override
+        public void delete(AddressLabel data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<AddressLabel> getMyAddresses() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<AddressLabel> getContacts() {
+            return new ArrayList<>(labels.values());
+        }
+
+        @Override
+        public long insert(AddressLabel obj) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ArrayList<AddressLabel> list() {
+            return new ArrayList<>(labels.values());
+        }
+
+        @Override
+        public AddressLabel get(String whereColumn, Object whereObjValue) {
+            return null;
+        }
+
+        @Override
+        public void updateFieldByKey(String whereColumn, String whereValue, String updateColumn, boolean updateValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void updateByKey(String whereColumn, String whereValue, AddressLabel addressLabel) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int updateFieldByKey(String whereColumn, String whereValue, String updateColumn, String updateValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int numberOfRows() {
+            return labels.size();
+        }
+
+        @Override
+        public Integer delete(String keyColumn, String columnValue) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package global.pivx;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pivxj.core.Coin;
+import org.pivxj.core.Context;
+import org.pivxj.core.ECKey;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Sha256Hash;
+import org.pivxj.core.Transaction;
+import org.pivxj.core.TransactionInput;
+import org.pivxj.core.TransactionOutPoint;
+import org.pivxj.core.TransactionOutput;
+import org.pivxj.params.TestNet3Params;
+import org.pivxj.script.ScriptBuilder;
+import org.pivxj.wallet.CoinSelection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coin selection over big UTXO sets, every candidate has its own parent transaction at a random depth.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DefaultCoinSelectorBenchmark {
+
+    @Param({"100", "10000"})
+    public int utxos;
+
+    /** Percentage of the candidates already used by other transactions */
+    @Param({"0", "10"})
+    public int usedPercent;
+
+    private List<TransactionOutput> candidates;
+    private DefaultCoinSelector selector;
+    private Coin smallTarget;
+    private Coin halfTarget;
+
+    @Setup
+    public void setUp() {
+        NetworkParameters params = TestNet3Params.get();
+        Context.propagate(new Context(params));
+        Random random = new Random(1);
+        ECKey key = new ECKey();
+        candidates = new ArrayList<>(utxos);
+        List<TransactionOutput> used = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < utxos; i++) {
+            Transaction tx = new Transaction(params);
+            // distinct parent hashes
+            tx.addInput(new TransactionInput(params, tx, new byte[0], new TransactionOutPoint(params, i, Sha256Hash.ZERO_HASH)));
+            long value = 1000 + random.nextInt(100_000_000);
+            TransactionOutput output = tx.addOutput(Coin.valueOf(value), ScriptBuilder.createOutputScript(key));
+            tx.getConfidence().setAppearedAtChainHeight(1000 + random.nextInt(100_000));
+            tx.getConfidence().setDepthInBlocks(1 + random.nextInt(100_000));
+            candidates.add(output);
+            if (random.nextInt(100) < usedPercent) used.add(output);
+            total += value;
+        }
+        selector = new DefaultCoinSelector(used);
+        smallTarget = Coin.valueOf(100_000_000);
+        halfTarget = Coin.valueOf(total / 2);
+    }
+
+    @Benchmark
+    public CoinSelection selectSmallTarget() {
+        return selector.select(smallTarget, candidates);
+    }
+
+    @Benchmark
+    public CoinSelection selectHalfBalance() {
+        return selector.select(halfTarget, candidates);
+    }
+
+    /** Balance calculation, the candidates are not sorted */
+    @Benchmark
+    public CoinSelection selectAll() {
+        return selector.select(NetworkParameters.MAX_MONEY, candidates);
+    }
+}
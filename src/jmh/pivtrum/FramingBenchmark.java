@@ -0,0 +1,118 @@
+package pivtrum;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import pivtrum.messages.GetHistoryMsg;
+
+/**
+ * Wire framing of {@link PivtrumPeer}: decoding of the newline-delimited responses and encoding of the
+ * outgoing single and batch frames.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FramingBenchmark {
+
+    /** Responses per read, and requests per batch frame */
+    @Param({"1", "100"})
+    public int frames;
+
+    /** History entries of every response */
+    @Param({"10", "1000"})
+    public int historySize;
+
+    private byte[] read;
+    /** Same read cut in two, the first frame spans both halves */
+    private byte[] firstHalf;
+    private byte[] secondHalf;
+    private PivtrumPeer.JsonDecoder decoder;
+    private PivtrumPeer.FrameEncoder encoder;
+    private PivtrumPeer.OutgoingFrame singleFrame;
+    private PivtrumPeer.OutgoingFrame batchFrame;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < frames; i++) {
+            builder.append("{\"jsonrpc\":\"2.0\",\"id\":").append(i).append(",\"result\":[");
+            for (int j = 0; j < historySize; j++) {
+                if (j > 0) builder.append(',');
+                builder.append("{\"tx_hash\":\"").append(txHash(i * historySize + j)).append("\",\"height\":").append(100000 + j).append('}');
+            }
+            builder.append("]}\n");
+        }
+        read = builder.toString().getBytes(StandardCharsets.UTF_8);
+        int half = read.length / 2;
+        firstHalf = new byte[half];
+        secondHalf = new byte[read.length - half];
+        System.arraycopy(read, 0, firstHalf, 0, half);
+        System.arraycopy(read, half, secondHalf, 0, secondHalf.length);
+        decoder = new PivtrumPeer.JsonDecoder();
+        encoder = new PivtrumPeer.FrameEncoder();
+
+        List<PendingRequest<?>> single = new ArrayList<>(1);
+        single.add(request(0));
+        singleFrame = new PivtrumPeer.OutgoingFrame(single, false, true, null);
+        List<PendingRequest<?>> batch = new ArrayList<>(frames);
+        for (int i = 0; i < frames; i++) {
+            batch.add(request(i));
+        }
+        batchFrame = new PivtrumPeer.OutgoingFrame(batch, true, true, null);
+    }
+
+    @Benchmark
+    public List<Object> decodeRead() throws Exception {
+        return decoder.decode(ByteBuffer.wrap(read));
+    }
+
+    @Benchmark
+    public List<Object> decodeSplitRead() throws Exception {
+        decoder.decode(ByteBuffer.wrap(firstHalf));
+        return decoder.decode(ByteBuffer.wrap(secondHalf));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeSingle() throws Exception {
+        return encoder.encode(singleFrame);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBatch() throws Exception {
+        return encoder.encode(batchFrame);
+    }
+
+    private static PendingRequest<Object> request(int id) {
+        GetHistoryMsg msg = new GetHistoryMsg("DMJRSsuU9zfyrvxVaAEFQqK4MxZg6vgeS6", txHash(id));
+        msg.setId(id);
+        return new PendingRequest<>(msg);
+    }
+
+    static String txHash(int seed) {
+        StringBuilder hash = new StringBuilder(64);
+        String hex = Integer.toHexString(seed);
+        for (int i = hex.length(); i < 64; i++) {
+            hash.append('a');
+        }
+        return hash.append(hex).toString();
+    }
+}
@@ -0,0 +1,64 @@
+package pivtrum.messages;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request serialization, the {@link BaseMsg#toJson()} object tree against the {@link BaseMsg#write(JsonByteWriter)} streaming.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BaseMsgBenchmark {
+
+    private GetHistoryMsg historyMsg;
+    private VersionMsg versionMsg;
+    private JsonByteWriter writer;
+
+    @Setup
+    public void setUp() {
+        historyMsg = new GetHistoryMsg("DMJRSsuU9zfyrvxVaAEFQqK4MxZg6vgeS6");
+        historyMsg.setId(123456);
+        versionMsg = new VersionMsg("pivx-light-wallet", "1.4", "1.0");
+        versionMsg.setId(1);
+        writer = new JsonByteWriter(1024);
+    }
+
+    @Benchmark
+    public byte[] historyToJson() {
+        return (historyMsg.toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ByteBuffer historyWrite() {
+        historyMsg.write(writer.reset());
+        return writer.raw((byte) '\n').getBuffer();
+    }
+
+    @Benchmark
+    public byte[] versionToJson() {
+        return (versionMsg.toJson().toString() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ByteBuffer versionWrite() {
+        versionMsg.write(writer.reset());
+        return writer.raw((byte) '\n').getBuffer();
+    }
+}
@@ -0,0 +1,76 @@
+package pivtrum.utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Address status hash of the history responses: a fresh hasher against one that keeps the confirmed prefix.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatusHasherBenchmark {
+
+    private static final String ADDRESS = "DMJRSsuU9zfyrvxVaAEFQqK4MxZg6vgeS6";
+
+    @Param({"10", "1000", "10000"})
+    public int historySize;
+
+    /** Mempool entries at the end of the history */
+    @Param({"2"})
+    public int unconfirmed;
+
+    private List<TxHashHeightWrapper> history;
+    private StatusHasher cachedHasher;
+
+    @Setup
+    public void setUp() {
+        history = new ArrayList<>(historySize + unconfirmed);
+        for (int i = 0; i < historySize; i++) {
+            history.add(new TxHashHeightWrapper(txHash(i), 100000 + i));
+        }
+        for (int i = 0; i < unconfirmed; i++) {
+            history.add(new TxHashHeightWrapper(txHash(historySize + i), 0));
+        }
+        cachedHasher = new StatusHasher();
+        cachedHasher.status(ADDRESS, history);
+    }
+
+    /** First status of the address, the whole history is hashed */
+    @Benchmark
+    public String statusCold() {
+        return new StatusHasher().status(ADDRESS, history);
+    }
+
+    /** New status of a known address, only the mempool tail is hashed */
+    @Benchmark
+    public String statusCachedPrefix() {
+        return cachedHasher.status(ADDRESS, history);
+    }
+
+    private static String txHash(int seed) {
+        StringBuilder hash = new StringBuilder(64);
+        String hex = Integer.toHexString(seed);
+        for (int i = hex.length(); i < 64; i++) {
+            hash.append('0');
+        }
+        return hash.append(hex).toString();
+    }
+}
@@ -0,0 +1,55 @@
+package wallet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenSSL compatible password encryption of the wallet backups, key derivation included.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CryptoBenchmark {
+
+    private static final char[] PASSWORD = "benchmark password".toCharArray();
+
+    /** Plain bytes, from a mnemonic to a wallet backup */
+    @Param({"256", "65536", "1048576"})
+    public int size;
+
+    private byte[] plain;
+    private String encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        plain = new byte[size];
+        new Random(1).nextBytes(plain);
+        encrypted = Crypto.encrypt(plain, PASSWORD);
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return Crypto.encrypt(plain, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] decryptBytes() throws Exception {
+        return Crypto.decryptBytes(encrypted, PASSWORD);
+    }
+}
@@ -0,0 +1,156 @@
+package pivtrum;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pivtrum.messages.responses.Header;
+
+/**
+ * Block headers indexed by height in a memory-mapped file of fixed-width slots.
+ *
+ * File: magic, slot size and tip height, followed by one slot per height starting at 0.
+ * Every slot fits the biggest header, the shorter headers are zero padded and their size
+ * is known from the version field. The file is mapped in segments as it grows.
+ */
+
+public class HeaderStore implements Closeable {
+
+    private static final int MAGIC = 0x50544801;
+    /** magic + slot size + tip height */
+    private static final int PREAMBLE_SIZE = 16;
+    /** Header size before the zerocoin accumulator checkpoint was added */
+    public static final int HEADER_SIZE = 80;
+    /** Header size of the version 4 and later headers */
+    public static final int ZEROCOIN_HEADER_SIZE = 112;
+    public static final int SLOT_SIZE = ZEROCOIN_HEADER_SIZE;
+    /** Headers per mapped segment */
+    private static final int SEGMENT_HEADERS = 1 << 16;
+    private static final byte[] PADDING = new byte[SLOT_SIZE];
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer preamble;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long tipHeight;
+
+    public HeaderStore(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        boolean isNew = channel.size() < PREAMBLE_SIZE;
+        preamble = channel.map(FileChannel.MapMode.READ_WRITE, 0, PREAMBLE_SIZE);
+        if (isNew) {
+            preamble.putInt(0, MAGIC);
+            preamble.putInt(4, SLOT_SIZE);
+            preamble.putLong(8, -1);
+        } else if (preamble.getInt(0) != MAGIC || preamble.getInt(4) != SLOT_SIZE) {
+            close();
+            throw new IOException("Invalid header store file " + file);
+        }
+        tipHeight = preamble.getLong(8);
+    }
+
+    /**
+     * @return size of a raw header, by its version
+     */
+    public static int getHeaderSize(byte[] header, int offset) {
+        long version = (header[offset] & 0xFFL) | (header[offset + 1] & 0xFFL) << 8 | (header[offset + 2] & 0xFFL) << 16 | (header[offset + 3] & 0xFFL) << 24;
+        return version > 3 ? ZEROCOIN_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * @return height of the last stored header, -1 if it's empty.
+     */
+    public synchronized long getTipHeight() {
+        return tipHeight;
+    }
+
+    /**
+     * Append headers after the tip.
+     *
+     * @param startHeight -> must be the tip height + 1
+     * @param headers -> raw headers in order
+     */
+    public synchronized void append(long startHeight, List<byte[]> headers) throws IOException {
+        if (startHeight != tipHeight + 1) throw new IllegalArgumentException("Not contiguous headers, start: " + startHeight + ", tip: " + tipHeight);
+        long height = startHeight;
+        for (byte[] header : headers) {
+            if (header.length > SLOT_SIZE) throw new IllegalArgumentException("Invalid header size: " + header.length);
+            ByteBuffer slot = segment(height).duplicate();
+            slot.position(slotPosition(height));
+            slot.put(header);
+            slot.put(PADDING, 0, SLOT_SIZE - header.length);
+            height++;
+        }
+        setTipHeight(height - 1);
+    }
+
+    /**
+     * Drop the headers after the height, used on reorgs.
+     */
+    public synchronized void truncate(long height) {
+        if (height < tipHeight) setTipHeight(Math.max(height, -1));
+    }
+
+    /**
+     * @return the raw header, null if it's not stored
+     */
+    public synchronized byte[] get(long height) throws IOException {
+        if (height < 0 || height > tipHeight) return null;
+        ByteBuffer slot = segment(height).duplicate();
+        slot.position(slotPosition(height));
+        byte[] header = new byte[SLOT_SIZE];
+        slot.get(header);
+        int size = getHeaderSize(header, 0);
+        return size == SLOT_SIZE ? header : Arrays.copyOf(header, size);
+    }
+
+    /**
+     * @return the parsed header, null if it's not stored
+     */
+    public Header getHeader(long height) throws IOException {
+        byte[] raw = get(height);
+        return raw != null ? Header.fromRaw(height, raw) : null;
+    }
+
+    /**
+     * Write the mapped changes to the disk.
+     */
+    public synchronized void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        preamble.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    private void setTipHeight(long height) {
+        tipHeight = height;
+        preamble.putLong(8, height);
+    }
+
+    private MappedByteBuffer segment(long height) throws IOException {
+        int index = (int) (height / SEGMENT_HEADERS);
+        while (segments.size() <= index) {
+            long position = PREAMBLE_SIZE + (long) segments.size() * SEGMENT_HEADERS * SLOT_SIZE;
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_HEADERS * SLOT_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    private static int slotPosition(long height) {
+        return (int) (height % SEGMENT_HEADERS) * SLOT_SIZE;
+    }
+}
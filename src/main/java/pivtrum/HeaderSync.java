@@ -0,0 +1,303 @@
+package pivtrum;
+
+import org.pivxj.core.Block;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Sha256Hash;
+import org.pivxj.core.VerificationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import pivtrum.exceptions.HeaderSyncException;
+
+/**
+ * Downloads the block headers in chunks from several peers in parallel into the {@link HeaderStore}.
+ *
+ * The chunks are requested round robin to the connected peers and committed in height order. Every header
+ * must link to the previous one by prev_block_hash and carry valid bits, the PoW blocks must also meet their target.
+ * An invalid chunk is requested again to the next peer. If the first new header doesn't link to the stored tip
+ * the last stored headers are dropped once per sync and downloaded again, which handles shallow reorgs.
+ */
+
+public class HeaderSync {
+
+    private static final Logger log = LoggerFactory.getLogger(HeaderSync.class);
+
+    /** Headers per chunk */
+    public static final int CHUNK_SIZE = 2016;
+    /** Default amount of chunks requested at once */
+    public static final int DEFAULT_PARALLEL_CHUNKS = 4;
+    /** Last proof of work block of the PIVX mainnet, the rest are proof of stake */
+    public static final long DEFAULT_LAST_POW_HEIGHT = 259200;
+    /** Stored headers dropped when the tip doesn't link with the peers chain */
+    public static final int MAX_REORG_DEPTH = 100;
+    /** Requests of a single chunk before aborting the sync */
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+
+    private final NetworkParameters params;
+    private final HeaderStore store;
+    private final Supplier<List<PivtrumPeer>> peers;
+    /** Validation and store writes, must be a single thread executor */
+    private final Executor executor;
+    private int parallelChunks = DEFAULT_PARALLEL_CHUNKS;
+    private long lastPowHeight = DEFAULT_LAST_POW_HEIGHT;
+    private Sync running;
+
+    /**
+     * @param params
+     * @param store
+     * @param peers -> connected peers, asked on every chunk request
+     * @param executor -> single thread executor in charge of the validation and store writes
+     */
+    public HeaderSync(NetworkParameters params, HeaderStore store, Supplier<List<PivtrumPeer>> peers, Executor executor) {
+        this.params = params;
+        this.store = store;
+        this.peers = peers;
+        this.executor = executor;
+    }
+
+    public void setParallelChunks(int parallelChunks) {
+        this.parallelChunks = parallelChunks;
+    }
+
+    public void setLastPowHeight(long lastPowHeight) {
+        this.lastPowHeight = lastPowHeight;
+    }
+
+    public HeaderStore getStore() {
+        return store;
+    }
+
+    /**
+     * Download the headers up to the target height, a running sync is extended to the new target.
+     *
+     * @param targetHeight
+     * @return future completed with the stored tip height
+     */
+    public synchronized CompletableFuture<Long> sync(final long targetHeight) {
+        if (running != null && !running.future.isDone()) {
+            final Sync sync = running;
+            executor.execute(() -> {
+                sync.targetHeight = Math.max(sync.targetHeight, targetHeight);
+                sync.fill();
+            });
+            return sync.future;
+        }
+        final Sync sync = new Sync(targetHeight);
+        running = sync;
+        executor.execute(sync::start);
+        return sync.future;
+    }
+
+    /**
+     * Sync state, only touched on the executor.
+     */
+    private class Sync {
+
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final TreeMap<Long, List<byte[]>> downloaded = new TreeMap<>();
+        private final Map<Long, Integer> attempts = new HashMap<>();
+        private long targetHeight;
+        private long nextChunk;
+        private int inFlight;
+        private int peerCursor;
+        private boolean reorgHandled;
+
+        Sync(long targetHeight) {
+            this.targetHeight = targetHeight;
+        }
+
+        void start() {
+            nextChunk = (store.getTipHeight() + 1) / CHUNK_SIZE;
+            fill();
+        }
+
+        void fill() {
+            if (future.isDone()) return;
+            while (inFlight < parallelChunks && nextChunk * CHUNK_SIZE <= targetHeight) {
+                request(nextChunk++);
+                if (future.isDone()) return;
+            }
+            if (inFlight == 0 && downloaded.isEmpty()) {
+                long tip = store.getTipHeight();
+                log.info("Header sync finished, tip: " + tip);
+                future.complete(tip);
+            }
+        }
+
+        void request(final long index) {
+            List<PivtrumPeer> connected = peers.get();
+            if (connected.isEmpty()) {
+                fail(new HeaderSyncException("No peer connected"));
+                return;
+            }
+            PivtrumPeer peer = connected.get(peerCursor++ % connected.size());
+            CompletableFuture<String> chunk;
+            try {
+                chunk = peer.getChunk(index);
+            } catch (RuntimeException e) {
+                // the session closed after the peers list was taken
+                log.info("Chunk " + index + " request fail, " + e.getMessage());
+                retry(index);
+                return;
+            }
+            inFlight++;
+            chunk.whenCompleteAsync((hex, throwable) -> {
+                inFlight--;
+                if (isPastEnd(index)) {
+                    // requested before the chain end was known, nothing to store
+                    log.debug("Chunk " + index + " past the chain end, dropped");
+                } else if (throwable != null) {
+                    log.info("Chunk " + index + " request fail, " + throwable.getMessage());
+                    retry(index);
+                } else {
+                    try {
+                        downloaded.put(index, parseChunk(hex));
+                        commit();
+                    } catch (VerificationException e) {
+                        log.info("Invalid chunk " + index + ", " + e.getMessage());
+                        retry(index);
+                    }
+                }
+                fill();
+            }, executor);
+        }
+
+        void retry(long index) {
+            if (isPastEnd(index)) return;
+            int attempt = attempts.merge(index, 1, Integer::sum);
+            if (attempt >= MAX_CHUNK_ATTEMPTS) {
+                fail(new HeaderSyncException("Chunk " + index + " failed " + attempt + " times"));
+            } else {
+                request(index);
+            }
+        }
+
+        /**
+         * @return true if the chunk starts after the target, lowered to the chain end once a peer returned it
+         */
+        boolean isPastEnd(long index) {
+            return index * CHUNK_SIZE > targetHeight;
+        }
+
+        /**
+         * Validate and store the downloaded chunks contiguous to the tip.
+         */
+        void commit() {
+            try {
+                while (!future.isDone()) {
+                    long first = store.getTipHeight() + 1;
+                    long index = first / CHUNK_SIZE;
+                    List<byte[]> chunk = downloaded.remove(index);
+                    if (chunk == null) return;
+                    int skip = (int) (first - index * CHUNK_SIZE);
+                    if (skip >= chunk.size()) {
+                        // the peer has no more headers than the stored ones
+                        targetHeight = Math.min(targetHeight, store.getTipHeight());
+                        downloaded.clear();
+                        return;
+                    }
+                    List<byte[]> headers = chunk.subList(skip, chunk.size());
+                    try {
+                        validate(first, headers);
+                    } catch (VerificationException e) {
+                        log.info("Invalid chunk " + index + ", " + e.getMessage());
+                        if (first > 0 && !reorgHandled && e instanceof UnlinkedHeaderException) {
+                            reorg();
+                        } else {
+                            retry(index);
+                        }
+                        return;
+                    }
+                    store.append(first, headers);
+                    if (chunk.size() < CHUNK_SIZE) {
+                        // end of the peer chain, nothing after it
+                        downloaded.clear();
+                        nextChunk = index + 1;
+                        targetHeight = Math.min(targetHeight, store.getTipHeight());
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void reorg() {
+            reorgHandled = true;
+            long tip = store.getTipHeight();
+            long height = Math.max(-1, tip - MAX_REORG_DEPTH);
+            log.info("Stored tip not linked to the peers chain, dropping headers after " + height);
+            store.truncate(height);
+            downloaded.clear();
+            nextChunk = (height + 1) / CHUNK_SIZE;
+        }
+
+        void validate(long firstHeight, List<byte[]> headers) throws IOException {
+            Sha256Hash prevHash = null;
+            if (firstHeight > 0) {
+                prevHash = params.getDefaultSerializer().makeBlock(store.get(firstHeight - 1)).getHash();
+            }
+            long height = firstHeight;
+            for (byte[] raw : headers) {
+                Block header = params.getDefaultSerializer().makeBlock(raw);
+                if (height == 0) {
+                    if (!header.getHash().equals(params.getGenesisBlock().getHash())) {
+                        throw new VerificationException("Invalid genesis block " + header.getHash());
+                    }
+                } else if (!header.getPrevBlockHash().equals(prevHash)) {
+                    throw new UnlinkedHeaderException("Header " + height + " not linked to " + prevHash);
+                }
+                // throws if the bits are not a valid target
+                BigInteger target = header.getDifficultyTargetAsInteger();
+                if (height <= lastPowHeight && height > 0 && header.getHash().toBigInteger().compareTo(target) > 0) {
+                    throw new VerificationException("Header " + height + " hash above its target");
+                }
+                prevHash = header.getHash();
+                height++;
+            }
+        }
+
+        void fail(Exception e) {
+            log.info("Header sync failed, " + e.getMessage());
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Split a chunk of concatenated raw headers, their size depends on the version.
+     */
+    static List<byte[]> parseChunk(String hex) {
+        byte[] bytes = Hex.decode(hex);
+        List<byte[]> headers = new ArrayList<>(CHUNK_SIZE);
+        int offset = 0;
+        while (offset + HeaderStore.HEADER_SIZE <= bytes.length) {
+            int size = HeaderStore.getHeaderSize(bytes, offset);
+            if (offset + size > bytes.length) throw new VerificationException("Truncated header at offset " + offset);
+            byte[] header = new byte[size];
+            System.arraycopy(bytes, offset, header, 0, size);
+            headers.add(header);
+            offset += size;
+        }
+        if (offset != bytes.length) throw new VerificationException("Trailing chunk bytes: " + (bytes.length - offset));
+        return headers;
+    }
+
+    private static class UnlinkedHeaderException extends VerificationException {
+
+        UnlinkedHeaderException(String s) {
+            super(s);
+        }
+    }
+}
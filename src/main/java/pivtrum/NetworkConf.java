@@ -1,9 +1,9 @@
 package pivtrum;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by furszy on 6/12/17.
@@ -14,15 +14,28 @@ import java.util.List;
 public class NetworkConf {
 
     private static final String CLIENT_NAME = "pivx_mobile";
-    private static final String MAX_PROTOCOL_VERSION = "2.9.5";
+    /** Electrum protocol versions range, the methods are picked by the negotiated version, see ProtocolVersion */
+    private static final String MAX_PROTOCOL_VERSION = "1.4";
     private static final String MIN_PROTOCOL_VERSION = "1.0";
+    /** Default tcp port of the servers which don't announce one */
+    public static final int DEFAULT_TCP_PORT = 50001;
+    /** Default ssl port of the servers which don't announce one */
+    public static final int DEFAULT_SSL_PORT = 50002;
+    /** Default amount of connection selector threads */
+    public static final int DEFAULT_IO_CONNECTOR_THREADS = 1;
+    /** Default amount of read/write selector threads */
+    public static final int DEFAULT_IO_PROCESSOR_THREADS = 1;
     /** Trusted server selected on the first screen of the app */
     private PivtrumPeerData trustedHost;
     /** Known servers from the network */
     private List<InetSocketAddress> networkServers;
+    /** Connection selector threads */
+    private int ioConnectorThreads = DEFAULT_IO_CONNECTOR_THREADS;
+    /** Read/write selector threads, the sessions are distributed between them */
+    private int ioProcessorThreads = DEFAULT_IO_PROCESSOR_THREADS;
 
     public NetworkConf() {
-        this.networkServers = new ArrayList<>();
+        this.networkServers = new CopyOnWriteArrayList<>();
     }
 
     public PivtrumPeerData getTrustedServer() {
@@ -35,7 +48,36 @@ public class NetworkConf {
     }
 
     public void addAll(Collection<InetSocketAddress> networkServers){
-        networkServers.addAll(networkServers);
+        this.networkServers.addAll(networkServers);
+    }
+
+    /**
+     * Merge servers discovered on the network, the already known ones are ignored.
+     *
+     * @param peers
+     * @return amount of new servers
+     */
+    public synchronized int addDiscoveredPeers(Collection<PivtrumPeerData> peers) {
+        int added = 0;
+        for (PivtrumPeerData peer : peers) {
+            if (peer.getTcpPort() <= 0) continue;
+            if (trustedHost != null && trustedHost.equals(peer)) continue;
+            InetSocketAddress address = InetSocketAddress.createUnresolved(peer.getHost(), peer.getTcpPort());
+            if (!containsServer(address)) {
+                networkServers.add(address);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private boolean containsServer(InetSocketAddress address) {
+        for (InetSocketAddress networkServer : networkServers) {
+            if (networkServer.getHostString().equals(address.getHostString()) && networkServer.getPort() == address.getPort()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public List<InetSocketAddress> getNetworkServers(){
@@ -57,4 +99,22 @@ public class NetworkConf {
     public void addPeers(List<InetSocketAddress> peers) {
         networkServers.addAll(peers);
     }
+
+    public int getIoConnectorThreads() {
+        return ioConnectorThreads;
+    }
+
+    public void setIoConnectorThreads(int ioConnectorThreads) {
+        if (ioConnectorThreads < 1) throw new IllegalArgumentException("ioConnectorThreads must be greater than 0");
+        this.ioConnectorThreads = ioConnectorThreads;
+    }
+
+    public int getIoProcessorThreads() {
+        return ioProcessorThreads;
+    }
+
+    public void setIoProcessorThreads(int ioProcessorThreads) {
+        if (ioProcessorThreads < 1) throw new IllegalArgumentException("ioProcessorThreads must be greater than 0");
+        this.ioProcessorThreads = ioProcessorThreads;
+    }
 }
@@ -0,0 +1,226 @@
+package pivtrum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of the servers discovered on the network and how they behaved, so a cold start
+ * can connect to the known-good servers in parallel instead of waiting for the trusted peer.
+ *
+ * Binary file: magic, format version, entries count and one fixed-order record per server.
+ */
+
+public class PeerCache {
+
+    /** "PTC" + format version */
+    private static final int MAGIC = 0x50544301;
+    /** Default max amount of servers kept */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    public static class Entry {
+
+        private final PivtrumPeerData peerData;
+        /** Last time the server was announced or connected, millis */
+        private long lastSeen;
+        /** Last successful connection, millis, 0 if never */
+        private long lastSuccess;
+        private int successes;
+        private int failures;
+
+        Entry(PivtrumPeerData peerData) {
+            this.peerData = peerData;
+        }
+
+        public PivtrumPeerData getPeerData() {
+            return peerData;
+        }
+
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public long getLastSuccess() {
+            return lastSuccess;
+        }
+
+        public int getSuccesses() {
+            return successes;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        /** Laplace smoothed success ratio, an unknown server starts at 0.5 */
+        double getSuccessRatio() {
+            return (successes + 1d) / (successes + failures + 2d);
+        }
+    }
+
+    /** Best first: success ratio, then the most recent success, then the most recently seen */
+    private static final Comparator<Entry> RANKING = Comparator.comparingDouble(Entry::getSuccessRatio).reversed()
+            .thenComparing(Comparator.comparingLong(Entry::getLastSuccess).reversed())
+            .thenComparing(Comparator.comparingLong(Entry::getLastSeen).reversed());
+
+    private final File file;
+    private final int maxEntries;
+    private final Map<PivtrumPeerData, Entry> entries = new HashMap<>();
+
+    public PeerCache(File file) {
+        this(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    public PeerCache(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Load the saved servers, a missing file is an empty cache.
+     *
+     * @throws IOException if the file is corrupt or can't be read
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Invalid peer cache file " + file);
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String host = in.readUTF();
+                int tcpPort = in.readUnsignedShort();
+                int sslPort = in.readUnsignedShort();
+                String version = in.readUTF();
+                long prunningLimit = in.readLong();
+                Entry entry = new Entry(new PivtrumPeerData(host, tcpPort, sslPort, version.isEmpty() ? null : version, prunningLimit));
+                entry.lastSeen = in.readLong();
+                entry.lastSuccess = in.readLong();
+                entry.successes = in.readInt();
+                entry.failures = in.readInt();
+                entries.put(entry.peerData, entry);
+            }
+        }
+    }
+
+    /**
+     * Write the cache into a temp file and move it over the previous one.
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                PivtrumPeerData peerData = entry.peerData;
+                out.writeUTF(peerData.getHost());
+                out.writeShort(peerData.getTcpPort());
+                out.writeShort(peerData.getSslPort());
+                out.writeUTF(peerData.getVersion() != null ? peerData.getVersion() : "");
+                out.writeLong(peerData.getPrunningLimit());
+                out.writeLong(entry.lastSeen);
+                out.writeLong(entry.lastSuccess);
+                out.writeInt(entry.successes);
+                out.writeInt(entry.failures);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Add or refresh servers announced by a peer.
+     */
+    public synchronized void addAll(Collection<PivtrumPeerData> peers) {
+        long now = System.currentTimeMillis();
+        for (PivtrumPeerData peer : peers) {
+            if (peer.getTcpPort() <= 0) continue;
+            Entry entry = entries.get(peer);
+            if (entry == null || !sameFeatures(entry.peerData, peer)) {
+                Entry updated = new Entry(peer);
+                if (entry != null) {
+                    updated.lastSuccess = entry.lastSuccess;
+                    updated.successes = entry.successes;
+                    updated.failures = entry.failures;
+                }
+                entry = updated;
+                entries.put(peer, entry);
+            }
+            entry.lastSeen = now;
+        }
+        evict();
+    }
+
+    public synchronized void onConnected(PivtrumPeerData peerData) {
+        long now = System.currentTimeMillis();
+        Entry entry = getOrCreate(peerData);
+        entry.successes++;
+        entry.lastSuccess = now;
+        entry.lastSeen = now;
+        evict();
+    }
+
+    public synchronized void onConnectionFailure(PivtrumPeerData peerData) {
+        getOrCreate(peerData).failures++;
+        evict();
+    }
+
+    /**
+     * @param max
+     * @return the best ranked servers, best first.
+     */
+    public synchronized List<PivtrumPeerData> getBestPeers(int max) {
+        List<Entry> ranked = new ArrayList<>(entries.values());
+        ranked.sort(RANKING);
+        List<PivtrumPeerData> best = new ArrayList<>(Math.min(max, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < max; i++) {
+            best.add(ranked.get(i).peerData);
+        }
+        return best;
+    }
+
+    public synchronized Entry getEntry(PivtrumPeerData peerData) {
+        return entries.get(peerData);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Entry getOrCreate(PivtrumPeerData peerData) {
+        Entry entry = entries.get(peerData);
+        if (entry == null) {
+            entry = new Entry(peerData);
+            entries.put(peerData, entry);
+        }
+        return entry;
+    }
+
+    private static boolean sameFeatures(PivtrumPeerData a, PivtrumPeerData b) {
+        return a.getSslPort() == b.getSslPort()
+                && a.getPrunningLimit() == b.getPrunningLimit()
+                && (a.getVersion() == null ? b.getVersion() == null : a.getVersion().equals(b.getVersion()));
+    }
+
+    /** Drop the worst ranked servers over the max */
+    private void evict() {
+        if (entries.size() <= maxEntries) return;
+        List<Entry> ranked = new ArrayList<>(entries.values());
+        ranked.sort(RANKING);
+        for (Entry entry : ranked.subList(maxEntries, ranked.size())) {
+            entries.remove(entry.peerData);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package pivtrum;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pivtrum.messages.Method;
+import pivtrum.utility.LatencyHistogram;
+
+/**
+ * Wire counters of a peer: requests, errors, timeouts and round-trip times by method, bytes in and out,
+ * server notifications and sessions. Cumulative over every session of the peer, read with {@link #snapshot}.
+ */
+
+public class PeerMetrics {
+
+    private static class MethodMetrics {
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong notifications = new AtomicLong();
+        private final LatencyHistogram rtt = new LatencyHistogram();
+    }
+
+    private final Map<Method, MethodMetrics> methods = new EnumMap<>(Method.class);
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong sessions = new AtomicLong();
+
+    public PeerMetrics() {
+        for (Method method : Method.values()) {
+            methods.put(method, new MethodMetrics());
+        }
+    }
+
+    void onRequest(Method method) {
+        methods.get(method).requests.incrementAndGet();
+    }
+
+    void onResponse(Method method, long rttNanos) {
+        methods.get(method).rtt.record(rttNanos);
+    }
+
+    /**
+     * Error response, its round-trip time is recorded as well.
+     */
+    void onError(Method method, long rttNanos) {
+        MethodMetrics metrics = methods.get(method);
+        metrics.errors.incrementAndGet();
+        metrics.rtt.record(rttNanos);
+    }
+
+    void onTimeout(Method method) {
+        methods.get(method).timeouts.incrementAndGet();
+    }
+
+    void onNotification(Method method) {
+        methods.get(method).notifications.incrementAndGet();
+    }
+
+    void onBytesIn(long bytes) {
+        bytesIn.addAndGet(bytes);
+    }
+
+    void onBytesOut(long bytes) {
+        bytesOut.addAndGet(bytes);
+    }
+
+    void onSessionCreated() {
+        sessions.incrementAndGet();
+    }
+
+    long getTimeouts(Method method) {
+        return methods.get(method).timeouts.get();
+    }
+
+    /**
+     * @param peerData
+     * @param inFlight -> requests written and waiting for a response
+     * @param queued -> requests waiting for a free slot on the in-flight window
+     */
+    Snapshot snapshot(PivtrumPeerData peerData, int inFlight, int queued) {
+        Map<Method, MethodSnapshot> methodSnapshots = new EnumMap<>(Method.class);
+        for (Map.Entry<Method, MethodMetrics> entry : methods.entrySet()) {
+            MethodMetrics metrics = entry.getValue();
+            long requests = metrics.requests.get();
+            long notifications = metrics.notifications.get();
+            if (requests == 0 && notifications == 0) continue;
+            methodSnapshots.put(entry.getKey(), new MethodSnapshot(
+                    requests,
+                    metrics.errors.get(),
+                    metrics.timeouts.get(),
+                    notifications,
+                    metrics.rtt.snapshot()
+            ));
+        }
+        return new Snapshot(peerData, Collections.unmodifiableMap(methodSnapshots), bytesIn.get(), bytesOut.get(),
+                inFlight, queued, sessions.get());
+    }
+
+    /**
+     * Counters of a single method.
+     */
+    public static class MethodSnapshot {
+
+        private final long requests;
+        private final long errors;
+        private final long timeouts;
+        private final long notifications;
+        private final LatencyHistogram.Snapshot rtt;
+
+        MethodSnapshot(long requests, long errors, long timeouts, long notifications, LatencyHistogram.Snapshot rtt) {
+            this.requests = requests;
+            this.errors = errors;
+            this.timeouts = timeouts;
+            this.notifications = notifications;
+            this.rtt = rtt;
+        }
+
+        /** @return requests written to the server */
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /** @return subscription notifications pushed by the server */
+        public long getNotifications() {
+            return notifications;
+        }
+
+        /** @return round-trip times of the answered requests, errors included */
+        public LatencyHistogram.Snapshot getRtt() {
+            return rtt;
+        }
+
+        @Override
+        public String toString() {
+            return "{requests=" + requests +
+                    ", errors=" + errors +
+                    ", timeouts=" + timeouts +
+                    ", notifications=" + notifications +
+                    ", rtt=" + rtt +
+                    '}';
+        }
+    }
+
+    /**
+     * Point in time copy of the peer counters.
+     */
+    public static class Snapshot {
+
+        private final PivtrumPeerData peerData;
+        private final Map<Method, MethodSnapshot> methods;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final int inFlight;
+        private final int queued;
+        private final long sessions;
+
+        Snapshot(PivtrumPeerData peerData, Map<Method, MethodSnapshot> methods, long bytesIn, long bytesOut, int inFlight, int queued, long sessions) {
+            this.peerData = peerData;
+            this.methods = methods;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.sessions = sessions;
+        }
+
+        public PivtrumPeerData getPeerData() {
+            return peerData;
+        }
+
+        /**
+         * @return counters of the methods used, without the unused ones.
+         */
+        public Map<Method, MethodSnapshot> getMethods() {
+            return methods;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        /** @return sessions opened with the server */
+        public long getSessions() {
+            return sessions;
+        }
+
+        /** @return sessions opened after the first one */
+        public long getReconnects() {
+            return Math.max(0, sessions - 1);
+        }
+
+        public long getRequests() {
+            long requests = 0;
+            for (MethodSnapshot method : methods.values()) {
+                requests += method.getRequests();
+            }
+            return requests;
+        }
+
+        public long getErrors() {
+            long errors = 0;
+            for (MethodSnapshot method : methods.values()) {
+                errors += method.getErrors();
+            }
+            return errors;
+        }
+
+        public long getTimeouts() {
+            long timeouts = 0;
+            for (MethodSnapshot method : methods.values()) {
+                timeouts += method.getTimeouts();
+            }
+            return timeouts;
+        }
+
+        @Override
+        public String toString() {
+            return "PeerMetrics{" +
+                    "host=" + peerData.getHost() + ":" + peerData.getTcpPort() +
+                    ", bytesIn=" + bytesIn +
+                    ", bytesOut=" + bytesOut +
+                    ", inFlight=" + inFlight +
+                    ", queued=" + queued +
+                    ", reconnects=" + getReconnects() +
+                    ", methods=" + methods +
+                    '}';
+        }
+    }
+}
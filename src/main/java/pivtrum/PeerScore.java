@@ -0,0 +1,76 @@
+package pivtrum;
+
+/**
+ * Smoothed quality of a peer: round-trip time, error rate and timeout rate.
+ *
+ * Every sample is an exponentially weighted moving average, a lower score is a better peer.
+ */
+
+public class PeerScore {
+
+    /** Weight of the newest sample */
+    private static final double ALPHA = 0.2;
+    /** Rtt used until the first response arrives */
+    public static final double UNKNOWN_RTT_MSEC = 1000;
+    /** Score multiplier of a peer failing every request */
+    private static final double ERROR_PENALTY = 4;
+    /** Score multiplier of a peer not answering any request */
+    private static final double TIMEOUT_PENALTY = 10;
+
+    private double smoothedRttMsec = -1;
+    private double errorRate;
+    private double timeoutRate;
+
+    public synchronized void onResponse(long rttNanos) {
+        updateRtt(rttNanos);
+        errorRate = errorRate * (1 - ALPHA);
+        timeoutRate = timeoutRate * (1 - ALPHA);
+    }
+
+    public synchronized void onError(long rttNanos) {
+        updateRtt(rttNanos);
+        errorRate = errorRate * (1 - ALPHA) + ALPHA;
+        timeoutRate = timeoutRate * (1 - ALPHA);
+    }
+
+    public synchronized void onTimeout() {
+        errorRate = errorRate * (1 - ALPHA);
+        timeoutRate = timeoutRate * (1 - ALPHA) + ALPHA;
+    }
+
+    private void updateRtt(long rttNanos) {
+        double rttMsec = rttNanos / 1_000_000d;
+        smoothedRttMsec = smoothedRttMsec < 0 ? rttMsec : smoothedRttMsec * (1 - ALPHA) + rttMsec * ALPHA;
+    }
+
+    /**
+     * @return smoothed round-trip time or {@link #UNKNOWN_RTT_MSEC} if there is no sample yet
+     */
+    public synchronized double getSmoothedRttMsec() {
+        return smoothedRttMsec < 0 ? UNKNOWN_RTT_MSEC : smoothedRttMsec;
+    }
+
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized double getTimeoutRate() {
+        return timeoutRate;
+    }
+
+    /**
+     * @return rtt penalized by the error and timeout rates, lower is better
+     */
+    public synchronized double getScore() {
+        return getSmoothedRttMsec() * (1 + ERROR_PENALTY * errorRate + TIMEOUT_PENALTY * timeoutRate);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PeerScore{" +
+                "smoothedRttMsec=" + getSmoothedRttMsec() +
+                ", errorRate=" + errorRate +
+                ", timeoutRate=" + timeoutRate +
+                '}';
+    }
+}
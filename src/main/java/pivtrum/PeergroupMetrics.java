@@ -0,0 +1,111 @@
+package pivtrum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point in time copy of the wire counters of the peergroup: the trusted peer, the connected non trusted peers
+ * and the reconnections completed by the group.
+ */
+
+public class PeergroupMetrics {
+
+    private final PeerMetrics.Snapshot trustedPeer;
+    private final List<PeerMetrics.Snapshot> peers;
+    private final long reconnects;
+
+    PeergroupMetrics(PeerMetrics.Snapshot trustedPeer, List<PeerMetrics.Snapshot> peers, long reconnects) {
+        this.trustedPeer = trustedPeer;
+        this.peers = Collections.unmodifiableList(peers);
+        this.reconnects = reconnects;
+    }
+
+    /**
+     * @return trusted peer counters, null before the trusted peer is selected.
+     */
+    public PeerMetrics.Snapshot getTrustedPeer() {
+        return trustedPeer;
+    }
+
+    /**
+     * @return counters of the connected non trusted peers.
+     */
+    public List<PeerMetrics.Snapshot> getPeers() {
+        return peers;
+    }
+
+    /**
+     * @return trusted peer plus the non trusted peers.
+     */
+    public List<PeerMetrics.Snapshot> getAllPeers() {
+        List<PeerMetrics.Snapshot> all = new ArrayList<>(peers.size() + 1);
+        if (trustedPeer != null) all.add(trustedPeer);
+        all.addAll(peers);
+        return all;
+    }
+
+    /**
+     * @return dropped peers connected again by the group.
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    public long getRequests() {
+        long requests = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            requests += peer.getRequests();
+        }
+        return requests;
+    }
+
+    public long getErrors() {
+        long errors = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            errors += peer.getErrors();
+        }
+        return errors;
+    }
+
+    public long getTimeouts() {
+        long timeouts = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            timeouts += peer.getTimeouts();
+        }
+        return timeouts;
+    }
+
+    public long getBytesIn() {
+        long bytes = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            bytes += peer.getBytesIn();
+        }
+        return bytes;
+    }
+
+    public long getBytesOut() {
+        long bytes = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            bytes += peer.getBytesOut();
+        }
+        return bytes;
+    }
+
+    public int getInFlight() {
+        int inFlight = 0;
+        for (PeerMetrics.Snapshot peer : getAllPeers()) {
+            inFlight += peer.getInFlight();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return "PeergroupMetrics{" +
+                "reconnects=" + reconnects +
+                ", trustedPeer=" + trustedPeer +
+                ", peers=" + peers +
+                '}';
+    }
+}
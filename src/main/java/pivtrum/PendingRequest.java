@@ -0,0 +1,81 @@
+package pivtrum;
+
+import java.util.concurrent.CompletableFuture;
+
+import pivtrum.messages.BaseMsg;
+import pivtrum.messages.Method;
+import pivtrum.utility.HashedWheelTimer;
+
+/**
+ * Request sent to a peer which is waiting for his response.
+ */
+
+class PendingRequest<T> {
+
+    /** Message sent */
+    private final BaseMsg<?> msg;
+    /** Method of the message, resolved once */
+    private final Method method;
+    /** Future completed when the response arrives */
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    /** Request deadline */
+    private volatile HashedWheelTimer.Timeout timeout;
+    /** System.nanoTime when the request was written */
+    private volatile long sentAtNanos;
+
+    PendingRequest(BaseMsg<?> msg) {
+        this.msg = msg;
+        this.method = Method.getMethodByName(msg.getMethod());
+    }
+
+    public BaseMsg<?> getMsg() {
+        return msg;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public long getId() {
+        return msg.getId();
+    }
+
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+
+    public void setSentAtNanos(long sentAtNanos) {
+        this.sentAtNanos = sentAtNanos;
+    }
+
+    public long getSentAtNanos() {
+        return sentAtNanos;
+    }
+
+    public void setTimeout(HashedWheelTimer.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean complete(T result) {
+        cancelTimeout();
+        return future.complete(result);
+    }
+
+    /**
+     * Complete with the parsed response, the caller typed the future after the response handler of the method.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean completeResponse(Object result) {
+        return complete((T) result);
+    }
+
+    public boolean fail(Throwable throwable) {
+        cancelTimeout();
+        return future.completeExceptionally(throwable);
+    }
+
+    void cancelTimeout() {
+        HashedWheelTimer.Timeout timeout = this.timeout;
+        if (timeout != null) timeout.cancel();
+    }
+}
@@ -1,10 +1,6 @@
 package pivtrum;
 
-import com.google.protobuf.ByteString;
-
-import org.pivxj.core.Sha256Hash;
 import org.furszy.client.IoManager;
-import org.furszy.client.basic.BaseMsgFuture;
 import org.furszy.client.basic.IoSessionConfImp;
 import org.furszy.client.basic.WriteFutureImp;
 import org.furszy.client.basic.WriteRequestImp;
@@ -16,81 +12,146 @@ import org.furszy.client.interfaces.IoSession;
 import org.furszy.client.interfaces.ProtocolDecoder;
 import org.furszy.client.interfaces.ProtocolEncoder;
 import org.furszy.client.interfaces.write.WriteFuture;
-import org.furszy.client.interfaces.write.WriteRequest;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.pivxj.core.AddressFormatException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Consumer;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import pivtrum.exceptions.InvalidPeerVersion;
+import pivtrum.exceptions.RequestTimeoutException;
+import pivtrum.exceptions.ServerErrorException;
 import pivtrum.listeners.PeerDataListener;
 import pivtrum.listeners.PeerListener;
 import pivtrum.messages.BaseMsg;
 import pivtrum.messages.GetBalanceMsg;
+import pivtrum.messages.GetBlockHeaderMsg;
+import pivtrum.messages.GetBlockHeadersMsg;
+import pivtrum.messages.GetChunkMsg;
 import pivtrum.messages.GetHeader;
 import pivtrum.messages.GetHistoryMsg;
+import pivtrum.messages.GetMerkleMsg;
 import pivtrum.messages.GetTxMsg;
+import pivtrum.messages.JsonByteWriter;
 import pivtrum.messages.ListUnspentMsg;
 import pivtrum.messages.Method;
 import pivtrum.messages.SubscribeAddressMsg;
 import pivtrum.messages.VersionMsg;
+import pivtrum.messages.responses.Balance;
+import pivtrum.messages.responses.Header;
+import pivtrum.messages.responses.MerkleProof;
 import pivtrum.messages.responses.StatusHistory;
 import pivtrum.messages.responses.Unspent;
+import pivtrum.utility.HashedWheelTimer;
+import pivtrum.utility.ProtocolVersion;
+import pivtrum.utility.ScriptHash;
+import pivtrum.utility.StatusHasher;
 import pivtrum.utility.TxHashHeightWrapper;
 
 /**
  * Created by furszy on 6/12/17.
  *
  * Class in charge of connect to a single peer on the network
- *
- * todo: create batch message builder and bathMessage
  */
 
-public class PivtrumPeer implements IoHandler{
+public class PivtrumPeer implements IoHandler<Object>{
+
+    /** Max amount of messages sent on a single batch frame */
+    public static final int MAX_BATCH_SIZE = 500;
+    /** Default time to wait for a response before failing the request */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MSEC = 30000;
+    /** Default max amount of requests waiting for a response on a single session */
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 100;
+    /** Time to wait for the tcp connection before reporting a connection failure */
+    public static final long CONNECT_TIMEOUT_MSEC = 15000;
+    /** Interval between the checks of a pending connection */
+    private static final long CONNECT_CHECK_MSEC = 250;
+    /** Deadlines of every peer request, shared by all of the peers */
+    private static final HashedWheelTimer requestTimer = new HashedWheelTimer(100, TimeUnit.MILLISECONDS, 512, "PivtrumPeer-request-timer");
 
     private final Logger log;
 
+    /** Address status of the received histories, keeps the hashed confirmed prefix of every address */
+    private final StatusHasher statusHasher = new StatusHasher();
     /** Peer data */
     private PivtrumPeerData peerData;
     /**  */
     private IoManager ioManager;
     /** Session connection id */
-    private IoSession session;
+    private volatile IoSession<?> session;
+    /** Closed by the client, a session created after it is closed right away */
+    private volatile boolean isClosed;
     /** Connection flag */
     private AtomicBoolean isRunning = new AtomicBoolean(false);
     private AtomicBoolean isInitilizing = new AtomicBoolean(false);
     /** Client version */
     private VersionMsg versionMsg;
+    /** Protocol version agreed with the server, null until the version handshake finishes */
+    private volatile String protocolVersion;
+    /** Subscribed addresses by script hash, the scripthash notifications don't carry the address */
+    private final ConcurrentMap<String,String> scripthashAddresses = new ConcurrentHashMap<>();
     private AtomicLong msgIdGenerator = new AtomicLong(0);
     /** Messages sent by type */
-    private ConcurrentMap<Long,BaseMsg> waitingRequests = new ConcurrentHashMap<>();
+    private ConcurrentMap<Long,PendingRequest<?>> waitingRequests = new ConcurrentHashMap<>();
+    /** Max amount of requests written and waiting for a response */
+    private volatile int maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    /** Requests written and waiting for a response, guarded by windowLock */
+    private int inFlight;
+    private final Object windowLock = new Object();
+    /** Frames waiting for a free slot on the in-flight window */
+    private final Queue<OutgoingFrame> outgoingFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    /** Response parsers by method */
+    private final Map<Method,ResponseHandler<?>> responseHandlers = new ConcurrentHashMap<>();
+    /** Notification parsers by subscription method */
+    private final Map<Method,ResponseHandler<?>> notificationHandlers = new ConcurrentHashMap<>();
+    /** Time to wait for a response */
+    private long requestTimeoutMsec = DEFAULT_REQUEST_TIMEOUT_MSEC;
+    /** Wire counters, requests, latencies and bytes by method */
+    private final PeerMetrics metrics = new PeerMetrics();
     /** Peer height */
-    private long height;
+    private volatile long height;
 
     /** Listeners */
     private CopyOnWriteArrayList<PeerListener> peerListeners = new CopyOnWriteArrayList<>();
     private CopyOnWriteArrayList<PeerDataListener> peerDataListeners = new CopyOnWriteArrayList<>();
+    /** Latency and reliability of the peer */
+    private final PeerScore score = new PeerScore();
+    /** Listeners notification executor */
+    private Executor listenersExecutor = Runnable::run;
 
     public PivtrumPeer(PivtrumPeerData peerData,IoManager ioManager,VersionMsg versionMsg) {
         this.peerData = peerData;
         this.ioManager = ioManager;
         this.versionMsg = versionMsg;
         this.log = LoggerFactory.getLogger(PivtrumPeer.class.getName()+"-"+peerData.getHost());
+        registerDefaultHandlers();
     }
 
     public void addPeerListener(PeerListener peerListener){
@@ -101,16 +162,42 @@ public class PivtrumPeer implements IoHandler{
         peerDataListeners.add(peerDataListener);
     }
 
+    /**
+     * Executor used to notify the listeners, by default they are notified on the I/O thread.
+     * Must be set before connect.
+     */
+    public void setListenersExecutor(Executor listenersExecutor) {
+        this.listenersExecutor = listenersExecutor;
+    }
+
+    private void notifyPeerListeners(final Consumer<PeerListener> call){
+        listenersExecutor.execute(() -> {
+            for (PeerListener peerListener : peerListeners) {
+                call.accept(peerListener);
+            }
+        });
+    }
+
+    private void notifyPeerDataListeners(final Consumer<PeerDataListener> call){
+        listenersExecutor.execute(() -> {
+            for (PeerDataListener peerDataListener : peerDataListeners) {
+                call.accept(peerDataListener);
+            }
+        });
+    }
+
     /**
      * Connect
      * todo: add future.
      */
     public void connect() throws ConnectionFailureException, InterruptedException {
         if (isInitilizing.compareAndSet(false,true) && !isRunning.get()) {
+            isClosed = false;
             IoSessionConfImp ioSessionConfImp = new IoSessionConfImp();
-            ioSessionConfImp.setProtocolDecoder(new JsonDecoder());
-            ioSessionConfImp.setProtocolEncoder(new StringEncoder());
+            ioSessionConfImp.setProtocolDecoder(new JsonDecoder(this::framesDecoded, metrics));
+            ioSessionConfImp.setProtocolEncoder(new FrameEncoder(metrics));
             ConnectFuture future = ioManager.connect(new InetSocketAddress(peerData.getHost(), peerData.getTcpPort()), null, this, ioSessionConfImp);
+            watchConnection(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MSEC));
             //future = future.get(TimeUnit.SECONDS.toNanos(30));
             /*if(future.isConnected()){
                 session = future.getSession();
@@ -123,14 +210,69 @@ public class PivtrumPeer implements IoHandler{
         }
     }
 
+    /**
+     * The connect future has no listeners, poll it on the request timer until the connection
+     * is established, fails or times out. A failure is notified through onExceptionCaught.
+     */
+    private void watchConnection(final ConnectFuture future, final long deadlineNanos){
+        requestTimer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isConnected() || isClosed || !isInitilizing.get()) return;
+                Throwable exception = future.getException();
+                if (exception == null && System.nanoTime() < deadlineNanos) {
+                    watchConnection(future, deadlineNanos);
+                    return;
+                }
+                future.cancel();
+                if (isInitilizing.compareAndSet(true, false)) {
+                    String reason = exception != null ? exception.getMessage() : "timeout";
+                    log.info("Connection fail, " + peerData.getHost() + ", " + reason);
+                    final ConnectionFailureException e = new ConnectionFailureException("Connection fail, " + peerData.getHost() + ": " + reason);
+                    notifyPeerListeners(listener -> listener.onExceptionCaught(PivtrumPeer.this, e));
+                }
+            }
+        }, CONNECT_CHECK_MSEC, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Close the connection, the waiting requests fail once the session is closed.
+     */
+    public void close() {
+        isClosed = true;
+        isRunning.set(false);
+        isInitilizing.set(false);
+        IoSession<?> ioSession = session;
+        if (ioSession != null) {
+            closeSession(ioSession);
+        }
+    }
+
+    /**
+     * The client library close only flags the session, the channel is closed here to drop the connection.
+     */
+    private void closeSession(IoSession<?> ioSession) {
+        ioSession.close();
+        try {
+            ioSession.getChannel().close();
+        } catch (IOException e) {
+            log.info("Session close fail, " + e.getMessage());
+        }
+    }
+
     /**
      * Send version message
      */
     public void sendVersion(){
         try{
-            WriteFuture writeFuture = new WriteFutureImp();
-            WriteRequest writeRequest = sendMsg(versionMsg,true,writeFuture);
-            //writeRequest.getFuture().get(TimeUnit.SECONDS.toNanos(30));
+            // a server without any version of the range answers with an error
+            this.<Object>sendRequest(versionMsg.copy()).whenComplete((ignored, throwable) -> {
+                if (throwable != null && isInitilizing.get()) {
+                    log.info("Version handshake fail, " + throwable.getMessage());
+                    close();
+                    notifyPeerListeners(listener -> listener.onExceptionCaught(this,new InvalidPeerVersion(String.valueOf(throwable.getMessage()))));
+                }
+            });
         } catch (JSONException e) {
             e.printStackTrace();
         } catch (Exception e) {
@@ -140,28 +282,30 @@ public class PivtrumPeer implements IoHandler{
 
     /**
      * Send a getPeers messages to the server.
-     * @return
+     * @return future completed with the servers known by the peer.
      */
-    public void getPeers() {
-        try {
-            log.info("getPeers");
-            BaseMsg getPeers = new BaseMsg(Method.GET_PEERS.getMethod());
-            WriteFuture writeFuture = new WriteFutureImp();
-            sendMsg(getPeers,true,writeFuture);
-        } catch (JSONException e) {
-            e.printStackTrace();
-        } catch (Exception e){
-            e.printStackTrace();
-        }
+    public CompletableFuture<List<PivtrumPeerData>> getPeers() {
+        log.debug("getPeers");
+        return sendRequest(new BaseMsg<>(Method.GET_PEERS.getMethod()));
     }
 
     /**
-     *
+     * Keepalive ping, the round-trip time feeds the peer score. server.ping was added on 1.2,
+     * the older servers are sent the version message again.
+     */
+    public CompletableFuture<Object> ping() {
+        if (!ProtocolVersion.supportsPing(protocolVersion)) return sendRequest(versionMsg.copy());
+        return sendRequest(new BaseMsg<>(Method.PING.getMethod()));
+    }
+
+    /**
+     * Subscribe to the chain height, blockchain.numblocks.subscribe was replaced by blockchain.headers.subscribe on 1.1.
      */
     private void subscribeHeight() {
-        log.info("subscribeHeight");
+        log.debug("subscribeHeight");
         WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(new BaseMsg(Method.HEIGHT_SUBSCRIBE.getMethod()),true,writeFuture);
+        Method method = ProtocolVersion.supportsHeadersSubscribe(protocolVersion) ? Method.HEADERS_SUBSCRIBE : Method.HEIGHT_SUBSCRIBE;
+        sendMsg(new BaseMsg<>(method.getMethod()),true,writeFuture);
     }
 
     /**
@@ -169,325 +313,756 @@ public class PivtrumPeer implements IoHandler{
      * @param addresses
      */
     public void subscribeAddresses(Set<String> addresses) {
-        log.info("suscribe addresses: " + Arrays.toString(addresses.toArray()));
+        if (log.isDebugEnabled()) log.debug("suscribe addresses: " + addresses.size());
+        List<BaseMsg<?>> msgs = new ArrayList<>(addresses.size());
         for (String address : addresses) {
-            subscribeAddress(address);
+            try {
+                msgs.add(new SubscribeAddressMsg(address, scripthash(address)));
+            } catch (IllegalArgumentException e) {
+                log.warn("Address not subscribed, " + e.getMessage());
+            }
         }
+        sendBatch(msgs);
     }
 
-    public void subscribeAddress(String address){
-        log.info("subscribe address: "+address);
-        WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new SubscribeAddressMsg(address),
-                true,
-                writeFuture
-        );
+    public CompletableFuture<String> subscribeAddress(String address){
+        if (log.isDebugEnabled()) log.debug("subscribe address: "+address);
+        return sendRequest(new SubscribeAddressMsg(address, scripthash(address)));
     }
 
-
+    /**
+     * Request the balance and the history of every address in a single batch frame.
+     *
+     * @param addresses
+     * @return futures of the responses, balance and history of every address in order.
+     */
+    public List<CompletableFuture<Object>> refreshAddresses(List<String> addresses) {
+        List<BaseMsg<?>> msgs = new ArrayList<>(addresses.size() * 2);
+        for (String address : addresses) {
+            String scripthash = scripthash(address);
+            msgs.add(new GetBalanceMsg(address, scripthash));
+            msgs.add(new GetHistoryMsg(address, scripthash));
+        }
+        return sendBatch(msgs);
+    }
 
     /**
      *
      * @param address
      */
-    public void listUnspent(String address){
-        log.info("list unspent");
-        WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new ListUnspentMsg(address),
-                true,
-                writeFuture
-        );
+    public CompletableFuture<List<Unspent>> listUnspent(String address){
+        log.debug("list unspent");
+        return sendRequest(new ListUnspentMsg(address, scripthash(address)));
     }
 
-    public void getBalance(String address) {
-        log.info("getBalance");
-        WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new GetBalanceMsg(address),
-                true,
-                writeFuture
-        );
+    public CompletableFuture<Balance> getBalance(String address) {
+        log.debug("getBalance");
+        return sendRequest(new GetBalanceMsg(address, scripthash(address)));
     }
 
     /**
      *
      * @param height
      */
-    public void getHeader(long height){
-        log.info("getHeader");
-        WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new GetHeader(height),
-                true,
-                writeFuture
-        );
+    public CompletableFuture<Header> getHeader(long height){
+        log.debug("getHeader");
+        if (ProtocolVersion.supportsBlockHeaders(protocolVersion)) {
+            return sendRequest(new GetBlockHeaderMsg(height));
+        }
+        return sendRequest(new GetHeader(height));
+    }
+
+    /**
+     * @param txHash
+     * @param height -> height of the block in which the transaction was confirmed
+     */
+    public CompletableFuture<MerkleProof> getMerkle(String txHash, long height){
+        log.debug("getMerkle");
+        return sendRequest(new GetMerkleMsg(txHash, height));
+    }
+
+    /**
+     * @param index -> chunk index, the first header height is index * chunk size.
+     * @return future completed with the concatenated raw headers in hex
+     */
+    public CompletableFuture<String> getChunk(long index){
+        log.debug("getChunk");
+        if (ProtocolVersion.supportsBlockHeaders(protocolVersion)) {
+            return sendRequest(new GetBlockHeadersMsg(index * HeaderSync.CHUNK_SIZE, HeaderSync.CHUNK_SIZE));
+        }
+        return sendRequest(new GetChunkMsg(index));
     }
 
     /**
      *
      * @param address
      */
-    public void getHistory(String address) {
-        log.info("onGetHistory");
-        WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new GetHistoryMsg(address),
-                true,
-                writeFuture
-        );
+    public CompletableFuture<StatusHistory> getHistory(String address) {
+        log.debug("onGetHistory");
+        return sendRequest(new GetHistoryMsg(address, scripthash(address)));
     }
 
     /**
      *
      * @param txHash
+     * @return future completed with the raw transaction in hex
      */
-    public void getTx(String txHash){
-        log.info("onGetTx");
+    public CompletableFuture<String> getTx(String txHash){
+        log.debug("onGetTx");
+        return sendRequest(new GetTxMsg(txHash));
+    }
+
+    /**
+     * Send the messages as JSON-RPC batch frames of at most {@link #MAX_BATCH_SIZE} requests each.
+     * Every response of the batch is dispatched individually through msgArrived.
+     *
+     * @param msgs
+     * @return one future per message, in the same order than the messages.
+     */
+    public List<CompletableFuture<Object>> sendBatch(List<? extends BaseMsg<?>> msgs){
+        List<CompletableFuture<Object>> futures = new ArrayList<>(msgs.size());
+        if (msgs.isEmpty()) return futures;
+        if (log.isDebugEnabled()) log.debug("sendBatch, size: "+msgs.size());
+        for (int from = 0; from < msgs.size(); from += MAX_BATCH_SIZE) {
+            int to = Math.min(from + MAX_BATCH_SIZE, msgs.size());
+            List<PendingRequest<Object>> requests = new ArrayList<>(to - from);
+            for (BaseMsg<?> msg : msgs.subList(from, to)) {
+                PendingRequest<Object> request = new PendingRequest<>(msg);
+                requests.add(request);
+                futures.add(request.getFuture());
+            }
+            WriteFuture writeFuture = new WriteFutureImp();
+            sendBatchMsg(requests, writeFuture);
+        }
+        return futures;
+    }
+
+    /**
+     * @return script hash of the address if the server protocol has the scripthash methods, null to use the address methods.
+     * @throws IllegalArgumentException if the address is not a base58 address and the server has no address methods.
+     */
+    private String scripthash(String address){
+        if (!ProtocolVersion.supportsScripthash(protocolVersion)) return null;
+        try {
+            String scripthash = ScriptHash.of(address);
+            scripthashAddresses.put(scripthash, address);
+            return scripthash;
+        } catch (AddressFormatException e) {
+            // not a base58 address, the server rejects it. The address methods are gone from 1.2.
+            if (ProtocolVersion.supportsAddressMethods(protocolVersion)) return null;
+            throw new IllegalArgumentException("Invalid address: " + address, e);
+        }
+    }
+
+    private <T> CompletableFuture<T> sendRequest(BaseMsg<?> baseMsg){
+        PendingRequest<T> request = new PendingRequest<>(baseMsg);
         WriteFuture writeFuture = new WriteFutureImp();
-        sendMsg(
-                new GetTxMsg(txHash),
-                true,
-                writeFuture
-        );
+        sendMsg(request,true,writeFuture);
+        return request.getFuture();
+    }
+
+    private void sendBatchMsg(List<? extends PendingRequest<?>> requests, WriteFuture writeFuture){
+        // read once, the session is cleared by sessionClosed on another thread
+        IoSession<?> current = session;
+        if (current==null) throw new IllegalStateException("Not connected peer");
+        if (current.isConnected()) {
+            assignIds(requests);
+            enqueueFrame(new OutgoingFrame(new ArrayList<PendingRequest<?>>(requests), true, true, writeFuture));
+        }else {
+            throw new IllegalStateException("Session not connected");
+        }
+    }
+
+    private void sendMsg(BaseMsg<?> baseMsg, boolean singleRequest, WriteFuture writeFuture){
+        sendMsg(new PendingRequest<>(baseMsg),singleRequest,writeFuture);
     }
 
-    private WriteRequest sendMsg(BaseMsg baseMsg, boolean singleRequest, WriteFuture writeFuture){
-        if (session==null) throw new IllegalStateException("Not connected peer");
-        if (session.isConnected()) {
-            WriteRequest writeRequest = new WriteRequestImp(buildMsg(baseMsg, singleRequest), writeFuture);
-            waitingRequests.put(baseMsg.getId(), baseMsg);
-            session.addWriteRequest(writeRequest);
-            return writeRequest;
+    private void sendMsg(PendingRequest<?> request, boolean singleRequest, WriteFuture writeFuture){
+        IoSession<?> current = session;
+        if (current==null) throw new IllegalStateException("Not connected peer");
+        if (current.isConnected()) {
+            List<PendingRequest<?>> requests = Collections.<PendingRequest<?>>singletonList(request);
+            assignIds(requests);
+            enqueueFrame(new OutgoingFrame(requests, false, singleRequest, writeFuture));
         }else {
             throw new IllegalStateException("Session not connected");
         }
     }
 
+    // -----------------------  In-flight window -------------------------------
+
+    private void enqueueFrame(OutgoingFrame frame){
+        for (final PendingRequest<?> request : frame.requests) {
+            request.getFuture().whenComplete((result, throwable) -> {
+                if (throwable instanceof CancellationException) cancelRequest(request);
+            });
+        }
+        queuedRequests.addAndGet(frame.requests.size());
+        outgoingFrames.add(frame);
+        drainOutgoingFrames();
+    }
+
+    /**
+     * Write the queued frames while they fit into the in-flight window.
+     * A frame bigger than the window is only written when nothing else is in flight.
+     * Without session the queued frames fail, they were enqueued while the session was closing.
+     */
+    private void drainOutgoingFrames(){
+        synchronized (windowLock) {
+            IoSession<?> current = session;
+            if (current == null) {
+                failQueuedFrames(new ConnectionFailureException("Session closed"));
+                return;
+            }
+            OutgoingFrame frame;
+            while ((frame = outgoingFrames.peek()) != null) {
+                int size = frame.requests.size();
+                if (frame.isCancelled()) {
+                    // nobody waits for the responses
+                    outgoingFrames.poll();
+                    queuedRequests.addAndGet(-size);
+                    continue;
+                }
+                if (inFlight > 0 && inFlight + size > maxInFlightRequests) break;
+                outgoingFrames.poll();
+                queuedRequests.addAndGet(-size);
+                inFlight += size;
+                long now = System.nanoTime();
+                for (PendingRequest<?> request : frame.requests) {
+                    request.setSentAtNanos(now);
+                    metrics.onRequest(request.getMethod());
+                    addWaitingRequest(request);
+                }
+                current.addWriteRequest(new WriteRequestImp(frame, frame.writeFuture));
+            }
+        }
+    }
+
+    /**
+     * A waiting request was answered, expired or failed, its window slot is free.
+     */
+    private void releaseInFlight(){
+        synchronized (windowLock) {
+            if (inFlight > 0) inFlight--;
+        }
+        drainOutgoingFrames();
+    }
+
+    /**
+     * The caller cancelled the future, a written request frees its window slot without waiting for the response.
+     * A queued one is dropped once every request of its frame is cancelled.
+     */
+    private void cancelRequest(PendingRequest<?> request){
+        if (waitingRequests.remove(request.getId(), request)) {
+            request.cancelTimeout();
+            releaseInFlight();
+        } else {
+            drainOutgoingFrames();
+        }
+    }
+
+    private void addWaitingRequest(final PendingRequest<?> request){
+        waitingRequests.put(request.getId(), request);
+        request.setTimeout(requestTimer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                expireRequest(request);
+            }
+        }, requestTimeoutMsec, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Evict the request if it is still waiting for the response and fail his caller.
+     */
+    private void expireRequest(PendingRequest<?> request){
+        if (waitingRequests.remove(request.getId(), request)) {
+            String method = request.getMsg().getMethod();
+            metrics.onTimeout(request.getMethod());
+            score.onTimeout();
+            log.info("request timeout, id: "+request.getId()+", method: "+method);
+            request.fail(new RequestTimeoutException(method+" id "+request.getId()+" without response after "+requestTimeoutMsec+" ms"));
+            releaseInFlight();
+        }
+    }
+
+    /**
+     * Fail every request waiting for a response, used when the session dies.
+     */
+    private void failWaitingRequests(Exception e){
+        synchronized (windowLock) {
+            inFlight = 0;
+            failQueuedFrames(e);
+        }
+        for (PendingRequest<?> request : waitingRequests.values()) {
+            if (waitingRequests.remove(request.getId(), request)) {
+                request.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Fail the frames waiting for a window slot, must hold windowLock.
+     */
+    private void failQueuedFrames(Exception e){
+        OutgoingFrame frame;
+        while ((frame = outgoingFrames.poll()) != null) {
+            queuedRequests.addAndGet(-frame.requests.size());
+            for (PendingRequest<?> request : frame.requests) {
+                request.fail(e);
+            }
+        }
+    }
+
     // -----------------------  Receive -------------------------------
 
+    /**
+     * Protocol 1.1 and later servers answer [server_software, protocol_version] with the negotiated version,
+     * the 1.0 servers only answer their software version.
+     */
     private void receiveVersion(JSONObject serverVersion){
-        // todo: check version message and create a Version class to parse and compare versions.
-        // Version version = new version(versionMsg.getMax(),versionMsg.getMin());
-        // if(!version.fitInto(this.version)) -> notify error and close the connection with this peer
-        // for now i just need to do a lazy check
-        String peerVersion = serverVersion.getString("result");
-        if (peerVersion.equals("ElectrumX 1.0.10")) {
+        Object result = serverVersion.get("result");
+        String peerVersion;
+        String negotiated;
+        if (result instanceof JSONArray) {
+            JSONArray array = (JSONArray) result;
+            peerVersion = array.getString(0);
+            negotiated = array.getString(1);
+        } else {
+            peerVersion = result.toString();
+            negotiated = "1.0";
+        }
+        boolean supported;
+        try {
+            supported = ProtocolVersion.isSupported(negotiated, versionMsg.getMinVersion(), versionMsg.getMaxVersion());
+        } catch (IllegalArgumentException e) {
+            supported = false;
+        }
+        if (supported) {
             if (isInitilizing.get()) {
+                protocolVersion = negotiated;
+                log.info("Protocol version " + negotiated + ", " + peerVersion);
                 // subscribe height before init
                 subscribeHeight();
                 isRunning.set(true);
                 isInitilizing.set(false);
                 log.info("Peer initilized, " + peerData.getHost());
-                for (PeerListener peerListener : peerListeners) {
-                    peerListener.onConnected(this);
-                }
+                notifyPeerListeners(listener -> listener.onConnected(this));
             }
         }else {
             // server version not valid
-            isInitilizing.set(false);
-            session.close();
-            for (PeerListener peerListener : peerListeners) {
-                peerListener.onExceptionCaught(this,new InvalidPeerVersion(peerVersion));
-            }
+            close();
+            notifyPeerListeners(listener -> listener.onExceptionCaught(this,new InvalidPeerVersion(peerVersion + ", protocol " + negotiated)));
         }
     }
 
-    private void receivePeers(JSONObject jsonObject){
-        log.info("receive peers");
-        //todo: save peers
-        jsonObject.getJSONArray("result");
+    private List<PivtrumPeerData> receivePeers(JSONObject jsonObject){
+        log.debug("receive peers");
+        return parsePeers(jsonObject.getJSONArray("result"));
     }
 
-    private void receiveAddress(JSONObject jsonObject, String address){
-        log.info("receive address: "+jsonObject.toString());
-        String result = jsonObject.getString("result");
-        log.info("result: "+result);
-        for (PeerDataListener peerDataListener : peerDataListeners) {
-            peerDataListener.onSubscribedAddressChange(this,address,result);
+    /**
+     * Parse the server.peers.subscribe triples: [ip, hostname, ["v1.0", "p10000", "t", "s995"]].
+     * A "t" or "s" feature without port means the default port, the servers without tcp port are kept
+     * with port 0 and onion hosts are skipped.
+     */
+    static List<PivtrumPeerData> parsePeers(JSONArray result){
+        List<PivtrumPeerData> peers = new ArrayList<>(result.length());
+        for (int i = 0; i < result.length(); i++) {
+            JSONArray triple = result.getJSONArray(i);
+            String host = triple.optString(1);
+            if (host.isEmpty()) host = triple.getString(0);
+            if (host.endsWith(".onion")) continue;
+            int tcpPort = 0;
+            int sslPort = 0;
+            String version = null;
+            long prunningLimit = 0;
+            JSONArray features = triple.getJSONArray(2);
+            for (int j = 0; j < features.length(); j++) {
+                String feature = features.getString(j);
+                if (feature.isEmpty()) continue;
+                String value = feature.substring(1);
+                try {
+                    switch (feature.charAt(0)) {
+                        case 'v':
+                            version = value;
+                            break;
+                        case 'p':
+                            prunningLimit = Long.parseLong(value);
+                            break;
+                        case 't':
+                            tcpPort = value.isEmpty() ? NetworkConf.DEFAULT_TCP_PORT : Integer.parseInt(value);
+                            break;
+                        case 's':
+                            sslPort = value.isEmpty() ? NetworkConf.DEFAULT_SSL_PORT : Integer.parseInt(value);
+                            break;
+                    }
+                } catch (NumberFormatException e) {
+                    // invalid feature value, ignored
+                }
+            }
+            peers.add(new PivtrumPeerData(host, tcpPort, sslPort, version, prunningLimit));
         }
+        return peers;
+    }
+
+    private String receiveAddress(JSONObject jsonObject, String address){
+        if (log.isDebugEnabled()) log.debug("receive address: "+jsonObject.toString());
+        String result = jsonObject.isNull("result") ? null : jsonObject.getString("result");
+        if (log.isDebugEnabled()) log.debug("result: "+result);
+        notifyPeerDataListeners(listener -> listener.onSubscribedAddressChange(this,address,result));
+        return result;
     }
 
-    private void receiveUnspents(JSONObject jsonObject, ListUnspentMsg msg) {
-        log.info("receive unspents: "+jsonObject.toString());
+    private List<Unspent> receiveUnspents(JSONObject jsonObject, ListUnspentMsg msg) {
+        if (log.isDebugEnabled()) log.debug("receive unspents: "+jsonObject.toString());
         List<Unspent> unspents = new ArrayList<>();
         JSONArray unspentArray = jsonObject.getJSONArray("result");
         for (int i=0;i<unspentArray.length();i++){
-            JSONObject unspent = unspentArray.getJSONObject(0);
+            JSONObject unspent = unspentArray.getJSONObject(i);
             int txPos = unspent.getInt("tx_pos");
             String txHash = unspent.getString("tx_hash");
             long value = unspent.getLong("value");
             long height = unspent.getLong("height");
             unspents.add(new Unspent(txPos,txHash,value,height));
         }
-        for (PeerDataListener peerDataListener : peerDataListeners) {
-            peerDataListener.onListUnpent(this,msg.getAddress(),unspents);
-        }
+        notifyPeerDataListeners(listener -> listener.onListUnpent(this,msg.getAddress(),unspents));
+        return unspents;
     }
 
-    private void receiveHeaders(JSONObject jsonObject,GetHeader getHeader){
-        log.info("receive getHeader, "+jsonObject.toString());
+    private Header receiveHeaders(JSONObject jsonObject,GetHeader getHeader){
+        if (log.isDebugEnabled()) log.debug("receive getHeader, "+jsonObject.toString());
+        JSONObject headerJson = jsonObject.getJSONObject("result");
+        return new Header(
+                headerJson.getLong("block_height"),
+                (int) headerJson.getLong("version"),
+                headerJson.getString("prev_block_hash"),
+                headerJson.getString("merkle_root"),
+                (int) headerJson.getLong("timestamp"),
+                (int) headerJson.getLong("bits"),
+                (int) headerJson.getLong("nonce")
+        );
+    }
+
+    /**
+     * Address status change notification, params: [address, status]
+     */
+    private String receiveAddressNotification(JSONObject jsonObject){
+        if (log.isDebugEnabled()) log.debug("receive address notification: "+jsonObject.toString());
+        JSONArray params = jsonObject.getJSONArray("params");
+        String address = params.getString(0);
+        String status = params.isNull(1) ? null : params.getString(1);
+        notifyPeerDataListeners(listener -> listener.onSubscribedAddressChange(this,address,status));
+        return status;
+    }
 
+    /**
+     * Scripthash notification, [scripthash, status], notified with the subscribed address.
+     */
+    private String receiveScripthashNotification(JSONObject jsonObject){
+        if (log.isDebugEnabled()) log.debug("receive scripthash notification: "+jsonObject.toString());
+        JSONArray params = jsonObject.getJSONArray("params");
+        String address = scripthashAddresses.get(params.getString(0));
+        String status = params.isNull(1) ? null : params.getString(1);
+        if (address == null) {
+            log.info("Notification of a not subscribed scripthash: " + params.getString(0));
+            return status;
+        }
+        notifyPeerDataListeners(listener -> listener.onSubscribedAddressChange(this,address,status));
+        return status;
     }
 
     private void receiveSubscribeHeight(JSONObject jsonObject){
-        log.info("receive receiveSubscribeHeight, "+jsonObject.toString());
+        if (log.isDebugEnabled()) log.debug("receive receiveSubscribeHeight, "+jsonObject.toString());
         if (jsonObject.has("result")){
             this.height = jsonObject.getLong("result");
         }else
             this.height = jsonObject.getJSONArray("params").getLong(0);
     }
 
-    private void receiveGetBalance(JSONObject jsonObject,GetBalanceMsg msg){
-        log.info("receive receiveGetBalance, "+jsonObject.toString());
+    /**
+     * Header of the chain tip, the height is "block_height" up to protocol 1.2 and "height" from 1.3.
+     */
+    private void receiveHeadersSubscribe(JSONObject header){
+        if (log.isDebugEnabled()) log.debug("receive headers subscribe, "+header.toString());
+        this.height = header.has("height") ? header.getLong("height") : header.getLong("block_height");
+    }
+
+    private Balance receiveGetBalance(JSONObject jsonObject,GetBalanceMsg msg){
+        if (log.isDebugEnabled()) log.debug("receive receiveGetBalance, "+jsonObject.toString());
         JSONObject jsonObj = jsonObject.getJSONObject("result");
         long confirmed = jsonObj.getLong("confirmed");
         long unconfirmed = jsonObj.getLong("unconfirmed");
-        for (PeerDataListener peerDataListener : peerDataListeners) {
-            peerDataListener.onBalanceReceive(this,msg.getAddress(),confirmed,unconfirmed);
-        }
+        notifyPeerDataListeners(listener -> listener.onBalanceReceive(this,msg.getAddress(),confirmed,unconfirmed));
+        return new Balance(msg.getAddress(),confirmed,unconfirmed);
     }
 
     // {"result":[{"tx_hash":"d2b6046de1febf450f416eef820ecdfee30112d7522bc9470fb0ae44fc704e02","height":131213},{"tx_hash":"a79c6eefb61e544303e7e4c6d12150018d253ed92a7538ceddd38add228942cd","height":132939}],"id":3,"jsonrpc":"2.0"},
-    private void receiveHistory(JSONObject jsonObject,String address){
-        log.info("receiveHistory, "+jsonObject.toString());
+    private StatusHistory receiveHistory(JSONObject jsonObject,String address){
+        if (log.isDebugEnabled()) log.debug("receiveHistory, "+jsonObject.toString());
         JSONArray jsonArray = jsonObject.getJSONArray("result");
-        List<TxHashHeightWrapper> list = new ArrayList<>();
-        // server hash status
-        StringBuilder stringBuilder = new StringBuilder();
+        List<TxHashHeightWrapper> list = new ArrayList<>(jsonArray.length());
         for (int i =0;i<jsonArray.length();i++){
             JSONObject txAndHeightJson = jsonArray.getJSONObject(i);
             String txHash = txAndHeightJson.getString("tx_hash");
             long height = txAndHeightJson.getLong("height");
-            stringBuilder.append(txHash)
-                    .append(":")
-                    .append(height)
-                    .append(":");
             list.add(new TxHashHeightWrapper(txHash,height));
         }
-        byte[] hash = Sha256Hash.hash(ByteString.copyFromUtf8(stringBuilder.toString()).toByteArray());
-        String hashHex = Hex.toHexString(hash);
-        for (PeerDataListener peerDataListener : peerDataListeners) {
-            peerDataListener.onGetHistory(this,new StatusHistory(address,list,hashHex));
-        }
+        // server hash status, only the new entries are hashed
+        String hashHex = statusHasher.status(address, list);
+        StatusHistory statusHistory = new StatusHistory(address,list,hashHex);
+        notifyPeerDataListeners(listener -> listener.onGetHistory(this,statusHistory));
+        return statusHistory;
     }
 
-    private void receiveTx(JSONObject jsonObject,GetTxMsg getTxMsg){
-        log.info("receive receiveTx, "+jsonObject.toString());
-        //JSONArray jsonArray = jsonObject.getJSONArray("result");
+    private String receiveTx(JSONObject jsonObject,GetTxMsg getTxMsg){
+        if (log.isDebugEnabled()) log.debug("receive receiveTx, "+jsonObject.toString());
+        return jsonObject.getString("result");
+    }
 
+    private MerkleProof receiveMerkle(JSONObject jsonObject, GetMerkleMsg msg){
+        JSONObject result = jsonObject.getJSONObject("result");
+        JSONArray merkleArray = result.getJSONArray("merkle");
+        List<String> merkle = new ArrayList<>(merkleArray.length());
+        for (int i = 0; i < merkleArray.length(); i++) {
+            merkle.add(merkleArray.getString(i));
+        }
+        return new MerkleProof(msg.getTxHash(), result.getLong("block_height"), merkle, result.getInt("pos"));
+    }
 
+    private void assignIds(List<? extends PendingRequest<?>> requests){
+        for (PendingRequest<?> request : requests) {
+            request.getMsg().setId(msgIdGenerator.incrementAndGet());
+        }
     }
 
-    private String buildMsg(BaseMsg msg,boolean isSingleMsg) throws JSONException {
-        msg.setId(msgIdGenerator.incrementAndGet());
-        String msgStr = msg.toJson().toString();
-        if (isSingleMsg){
-            msgStr+="\n";
+    /**
+     * Dispatch a batch response, every element is handled as a single message.
+     * @param jsonArray
+     */
+    private void batchArrived(JSONArray jsonArray){
+        for (int i = 0; i < jsonArray.length(); i++) {
+            // a bad element doesn't abort the rest of the batch
+            try {
+                msgArrived(jsonArray.getJSONObject(i));
+            } catch (Exception e) {
+                log.warn("Batch element dispatch fail, index: " + i, e);
+            }
         }
-        return msgStr;
     }
 
     private void msgArrived(JSONObject jsonObject){
-        if (jsonObject.has("id")) {
+        if (jsonObject.has("id") && !jsonObject.isNull("id")) {
             long id = jsonObject.getLong("id");
-            if (waitingRequests.containsKey(id)) {
-                BaseMsg baseMsg = waitingRequests.get(id);
-                String method = baseMsg.getMethod();
-                switch (Method.getMethodByName(method)) {
-                    case VERSION:
-                        receiveVersion(jsonObject);
-                        break;
-                    case GET_PEERS:
-                        receivePeers(jsonObject);
-                        break;
-                    case ADDRESS_SUBSCRIBE:
-                        receiveAddress(jsonObject, ((SubscribeAddressMsg) baseMsg).getAddress());
-                        break;
-                    case LIST_UNSPENT:
-                        receiveUnspents(jsonObject, (ListUnspentMsg) baseMsg);
-                        break;
-                    case GET_HEADER:
-                        receiveHeaders(jsonObject, (GetHeader) baseMsg);
-                        break;
-                    case HEIGHT_SUBSCRIBE:
-                        receiveSubscribeHeight(jsonObject);
-                        break;
-                    case GET_BALANCE:
-                        receiveGetBalance(jsonObject,(GetBalanceMsg)baseMsg);
-                        break;
-                    case GET_ADDRESS_HISTORY:
-                        receiveHistory(jsonObject,((GetHistoryMsg)baseMsg).getAddress());
-                        break;
-                    case GET_TX:
-                        receiveTx(jsonObject, (GetTxMsg) baseMsg);
-                        break;
-                    default:
-                        log.info("dispatch method " + method + " not implemented");
-                        break;
+            PendingRequest<?> request = waitingRequests.remove(id);
+            if (request != null) {
+                releaseInFlight();
+                long rttNanos = System.nanoTime() - request.getSentAtNanos();
+                if (jsonObject.has("error") && !jsonObject.isNull("error")){
+                    score.onError(rttNanos);
+                    metrics.onError(request.getMethod(), rttNanos);
+                    String error = jsonObject.get("error").toString();
+                    log.info("Error response, method: " + request.getMsg().getMethod() + ", error: " + error);
+                    if (log.isDebugEnabled()) log.debug("Error response arrived, "+jsonObject.toString());
+                    request.fail(new ServerErrorException(error));
+                    return;
+                }
+                score.onResponse(rttNanos);
+                metrics.onResponse(request.getMethod(), rttNanos);
+                ResponseHandler<?> handler = responseHandlers.get(request.getMethod());
+                if (handler == null) {
+                    log.info("dispatch method " + request.getMethod() + " not implemented");
+                    request.complete(null);
+                    return;
+                }
+                try {
+                    request.completeResponse(handle(handler, jsonObject, request.getMsg()));
+                }catch (Exception e){
+                    // only this request fails, the rest of the frame is still dispatched
+                    log.warn("Response handler fail, method: " + request.getMethod() + ", id: " + id, e);
+                    request.fail(e);
                 }
-                waitingRequests.remove(id);
             } else {
-                log.info("Message arrive without a waiting request type.., "+jsonObject.toString());
+                log.info("Message arrive without a waiting request, id: " + id);
+                if (log.isDebugEnabled()) log.debug("Message without a waiting request, "+jsonObject.toString());
             }
         }else {
             // Is a notification
-            String method = jsonObject.getString("method");
-            switch (Method.getMethodByName(method)){
-                case HEIGHT_SUBSCRIBE:
-                    receiveSubscribeHeight(jsonObject);
-                    break;
-                case ADDRESS_SUBSCRIBE:
-                    // todo: get address from json object
-                    receiveAddress(jsonObject,null);
-                    break;
-                default:
-                    log.info("Message notification arrive without a waiting request type..");
-                    break;
+            Method method = Method.findMethodByName(jsonObject.optString("method", null));
+            ResponseHandler<?> handler = method != null ? notificationHandlers.get(method) : null;
+            if (handler != null) {
+                metrics.onNotification(method);
+                handle(handler, jsonObject, null);
+            } else {
+                log.info("Notification arrive without a handler, method: " + jsonObject.optString("method", null));
+                if (log.isDebugEnabled()) log.debug("Notification without a handler, "+jsonObject.toString());
             }
         }
     }
 
+    /**
+     * @param msg -> message of the method the handler was registered for, null for notifications
+     */
+    @SuppressWarnings("unchecked")
+    private static Object handle(ResponseHandler<?> handler, JSONObject jsonObject, BaseMsg<?> msg) throws JSONException {
+        return ((ResponseHandler<BaseMsg<?>>) handler).handle(jsonObject, msg);
+    }
+
+    /**
+     * Register the handler in charge of parsing the responses of a method, replacing the previous one.
+     *
+     * @param method
+     * @param handler
+     */
+    public void setResponseHandler(Method method, ResponseHandler<?> handler){
+        responseHandlers.put(method, handler);
+    }
+
+    /**
+     * Register the handler in charge of parsing the server notifications of a subscription method.
+     *
+     * @param method
+     * @param handler
+     */
+    public void setNotificationHandler(Method method, ResponseHandler<?> handler){
+        notificationHandlers.put(method, handler);
+    }
+
+    private void registerDefaultHandlers(){
+        responseHandlers.put(Method.VERSION, (json, msg) -> {
+            receiveVersion(json);
+            return null;
+        });
+        responseHandlers.put(Method.PING, (json, msg) -> null);
+        responseHandlers.put(Method.GET_PEERS, (json, msg) -> receivePeers(json));
+        responseHandlers.put(Method.ADDRESS_SUBSCRIBE, (json, msg) -> receiveAddress(json, ((SubscribeAddressMsg) msg).getAddress()));
+        responseHandlers.put(Method.LIST_UNSPENT, (json, msg) -> receiveUnspents(json, (ListUnspentMsg) msg));
+        responseHandlers.put(Method.GET_HEADER, (json, msg) -> receiveHeaders(json, (GetHeader) msg));
+        responseHandlers.put(Method.HEIGHT_SUBSCRIBE, (json, msg) -> {
+            receiveSubscribeHeight(json);
+            return height;
+        });
+        responseHandlers.put(Method.GET_BALANCE, (json, msg) -> receiveGetBalance(json, (GetBalanceMsg) msg));
+        responseHandlers.put(Method.GET_ADDRESS_HISTORY, (json, msg) -> receiveHistory(json, ((GetHistoryMsg) msg).getAddress()));
+        responseHandlers.put(Method.GET_TX, (json, msg) -> receiveTx(json, (GetTxMsg) msg));
+        responseHandlers.put(Method.GET_CHUNK, (json, msg) -> json.getString("result"));
+        responseHandlers.put(Method.GET_MERKLE, (json, msg) -> receiveMerkle(json, (GetMerkleMsg) msg));
+        // protocol 1.1 and 1.3 replacements
+        responseHandlers.put(Method.HEADERS_SUBSCRIBE, (json, msg) -> {
+            receiveHeadersSubscribe(json.getJSONObject("result"));
+            return height;
+        });
+        responseHandlers.put(Method.BLOCK_HEADER, (json, msg) -> Header.fromRaw(((GetBlockHeaderMsg) msg).getHeight(), Hex.decode(json.getString("result"))));
+        responseHandlers.put(Method.BLOCK_HEADERS, (json, msg) -> json.getJSONObject("result").getString("hex"));
+        // same responses than the address methods
+        responseHandlers.put(Method.SCRIPTHASH_SUBSCRIBE, (json, msg) -> receiveAddress(json, ((SubscribeAddressMsg) msg).getAddress()));
+        responseHandlers.put(Method.SCRIPTHASH_LIST_UNSPENT, (json, msg) -> receiveUnspents(json, (ListUnspentMsg) msg));
+        responseHandlers.put(Method.SCRIPTHASH_GET_BALANCE, (json, msg) -> receiveGetBalance(json, (GetBalanceMsg) msg));
+        responseHandlers.put(Method.SCRIPTHASH_GET_HISTORY, (json, msg) -> receiveHistory(json, ((GetHistoryMsg) msg).getAddress()));
+
+        notificationHandlers.put(Method.HEIGHT_SUBSCRIBE, (json, msg) -> {
+            receiveSubscribeHeight(json);
+            return height;
+        });
+        notificationHandlers.put(Method.HEADERS_SUBSCRIBE, (json, msg) -> {
+            receiveHeadersSubscribe(json.getJSONArray("params").getJSONObject(0));
+            return height;
+        });
+        notificationHandlers.put(Method.ADDRESS_SUBSCRIBE, (json, msg) -> receiveAddressNotification(json));
+        notificationHandlers.put(Method.SCRIPTHASH_SUBSCRIBE, (json, msg) -> receiveScripthashNotification(json));
+    }
+
+    // the client library declares the session raw, an IoSession<?> parameter wouldn't override it
     @Override
+    @SuppressWarnings("rawtypes")
     public void sessionCreated(IoSession ioSession) throws Exception {
         log.info("Session created: "+ioSession.getId());
+        metrics.onSessionCreated();
         session = ioSession;
+        if (isClosed) {
+            closeSession(ioSession);
+            return;
+        }
         log.info("Peer connected");
         // Send version
         sendVersion();
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void sessionOpened(IoSession ioSession) throws Exception {
         log.info("Session opened: "+ioSession.getId());
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void sessionClosed(IoSession ioSession) throws Exception {
         log.info("Session closed: "+ioSession.getId());
+        ConnectionFailureException closed = new ConnectionFailureException("Session closed");
+        // the queued frames fail before the session is cleared, a drain never sees them without session
+        synchronized (windowLock) {
+            failQueuedFrames(closed);
+            session = null;
+        }
+        protocolVersion = null;
+        isRunning.set(false);
+        isInitilizing.set(false);
+        failWaitingRequests(closed);
+        // the client closed it, nothing to recover
+        if (!isClosed) {
+            notifyPeerListeners(listener -> listener.onDisconnected(this));
+        }
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void exceptionCaught(IoSession ioSession, Throwable throwable) throws Exception {
-        log.error("exceptionCaught: "+ioSession.getId());
-        throwable.printStackTrace();
+        log.error("exceptionCaught: "+ioSession.getId(), throwable);
+        final Exception e = (throwable instanceof Exception) ? (Exception) throwable : new Exception(throwable);
+        notifyPeerListeners(listener -> listener.onExceptionCaught(this, e));
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void messageReceived(IoSession ioSession, Object s) throws Exception {
-        log.info("messageReceived: "+s.toString()+", session id:"+ioSession.getId());
-        msgArrived((JSONObject) s);
+        // the decoder dispatches the frames itself, see framesDecoded
+        if (!(s instanceof List)) return;
+        for (Object frame : (List<?>) s) {
+            dispatchFrame(frame);
+        }
+    }
+
+    /**
+     * Frames of a read, dispatched on the reader thread. The client library hands the decoded reads to a single
+     * shared runnable, a read arriving before the previous one was dispatched overwrites it and its responses are lost.
+     */
+    private void framesDecoded(List<Object> frames){
+        if (log.isDebugEnabled()) log.debug("messageReceived: "+frames.size()+" frames");
+        for (Object frame : frames) {
+            try {
+                dispatchFrame(frame);
+            } catch (Exception e) {
+                log.error("Frame dispatch fail, " + frame, e);
+            }
+        }
+    }
 
+    private void dispatchFrame(Object frame){
+        if (frame instanceof JSONArray) {
+            batchArrived((JSONArray) frame);
+        } else {
+            msgArrived((JSONObject) frame);
+        }
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void messageSent(IoSession ioSession, Object o) throws Exception {
-        log.info("messageSent: "+o+", session id:"+ioSession.getId());
+        if (log.isDebugEnabled()) log.debug("messageSent: "+o+", session id:"+ioSession.getId());
 
     }
 
     @Override
+    @SuppressWarnings("rawtypes")
     public void inputClosed(IoSession ioSession) throws Exception {
         log.error("input closed session id:"+ioSession.getId());
     }
@@ -496,93 +1071,335 @@ public class PivtrumPeer implements IoHandler{
         return peerData;
     }
 
-    static class JsonDecoder extends ProtocolDecoder<JSONObject> {
+    public PeerScore getScore() {
+        return score;
+    }
 
-        @Override
-        public JSONObject decode(ByteBuffer byteBuffer) throws InvalidProtocolViolationException {
-            try {
-                return new JSONObject(new String(byteBuffer.array(),"UTF-8"));
-            } catch (UnsupportedEncodingException e) {
-                throw new InvalidProtocolViolationException("error decoder",e);
-            }
-        }
+    /**
+     * @return last chain height announced by the server
+     */
+    public long getHeight() {
+        return height;
     }
 
-    static class StringEncoder extends ProtocolEncoder<String> {
+    /**
+     * @return protocol version agreed with the server, null if the peer is not initialized
+     */
+    public String getProtocolVersion() {
+        return protocolVersion;
+    }
 
-        @Override
-        public ByteBuffer encode(String message) throws InvalidProtocolViolationException {
-            try {
-                byte[] bytes =  message.getBytes("UTF-8");
-                ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length);
-                byteBuffer.put(bytes);
-                return byteBuffer;
-            } catch (UnsupportedEncodingException e) {
-                throw new InvalidProtocolViolationException("error encoder",e);
-            }
-        }
+    /**
+     * @return true if the version handshake finished and the peer is ready
+     */
+    public boolean isRunning() {
+        return isRunning.get();
     }
 
+    public void setRequestTimeoutMsec(long requestTimeoutMsec) {
+        this.requestTimeoutMsec = requestTimeoutMsec;
+    }
 
+    public long getRequestTimeoutMsec() {
+        return requestTimeoutMsec;
+    }
 
+    /**
+     * @return amount of requests waiting for a response
+     */
+    public int getWaitingRequestsCount() {
+        return waitingRequests.size();
+    }
 
+    /**
+     * Set the max amount of requests written and waiting for a response, the rest are queued locally.
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        if (maxInFlightRequests < 1) throw new IllegalArgumentException("maxInFlightRequests must be greater than 0");
+        this.maxInFlightRequests = maxInFlightRequests;
+        drainOutgoingFrames();
+    }
 
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
 
+    /**
+     * @return amount of requests written and waiting for a response
+     */
+    public int getInFlightCount() {
+        synchronized (windowLock) {
+            return inFlight;
+        }
+    }
 
+    /**
+     * @return amount of requests queued locally waiting for a free slot on the in-flight window
+     */
+    public int getQueuedRequestsCount() {
+        return queuedRequests.get();
+    }
 
+    /**
+     * @param method
+     * @return amount of requests of the method evicted for not receiving a response on time
+     */
+    public long getTimeoutCount(Method method) {
+        return metrics.getTimeouts(method);
+    }
 
+    /**
+     * Pull snapshot of the wire counters, cumulative over every session of the peer.
+     */
+    public PeerMetrics.Snapshot getMetrics() {
+        return metrics.snapshot(peerData, getInFlightCount(), getQueuedRequestsCount());
+    }
 
+    /**
+     * Newline-delimited frame decoder.
+     *
+     * Scans the read buffer in place for '\n' boundaries and decodes every complete frame into a
+     * JSONObject (single message) or a JSONArray (batch response). Bytes after the last boundary are
+     * kept as a pending tail and prepended to the next read, so a read can emit zero or more messages.
+     * A malformed or oversized frame is skipped up to its delimiter, the frames around it are still decoded.
+     *
+     * One decoder per session, it is not thread safe.
+     */
+    static class JsonDecoder extends ProtocolDecoder<List<Object>> {
 
+        private static final Logger log = LoggerFactory.getLogger(JsonDecoder.class);
 
+        /** Max size of a single frame, a bigger one is skipped */
+        static final int MAX_FRAME_SIZE = 32 * 1024 * 1024;
 
+        private static final byte DELIMITER = '\n';
 
+        /** Incomplete frame bytes waiting for the next read */
+        private byte[] pending = new byte[0];
+        private int pendingSize;
+        /** Skipping the rest of an oversized frame, its tail went over the max size before the delimiter */
+        private boolean discarding;
+        /** Frames skipped for not being valid json or being too big */
+        private long skippedFrames;
+        /** Receives the frames of every read, null to return them from decode */
+        private final Consumer<List<Object>> sink;
+        /** Counts the bytes read, can be null */
+        private final PeerMetrics metrics;
 
+        JsonDecoder() {
+            this(null);
+        }
 
+        JsonDecoder(Consumer<List<Object>> sink) {
+            this(sink, null);
+        }
 
+        JsonDecoder(Consumer<List<Object>> sink, PeerMetrics metrics) {
+            this.sink = sink;
+            this.metrics = metrics;
+        }
 
+        @Override
+        public List<Object> decode(ByteBuffer byteBuffer) throws InvalidProtocolViolationException {
+            // the reader hands over the buffer right after writing into it, without flipping it.
+            if (byteBuffer.position() != 0 && !byteBuffer.hasRemaining()) {
+                byteBuffer.flip();
+            }
+            byte[] array = byteBuffer.array();
+            int start = byteBuffer.arrayOffset() + byteBuffer.position();
+            int end = byteBuffer.arrayOffset() + byteBuffer.limit();
+            byteBuffer.position(byteBuffer.limit());
+            if (metrics != null) metrics.onBytesIn(end - start);
+
+            List<Object> frames = new ArrayList<>();
+            int frameStart = start;
+            for (int i = start; i < end; i++) {
+                if (array[i] != DELIMITER) continue;
+                if (discarding) {
+                    discarding = false;
+                } else if (pendingSize + i - frameStart > MAX_FRAME_SIZE) {
+                    // ended by this delimiter, the next frame is read as usual
+                    pendingSize = 0;
+                    skipOversized();
+                } else if (pendingSize > 0) {
+                    appendPending(array, frameStart, i - frameStart);
+                    // reset before parsing, a bad frame must not be prepended to the next one
+                    int size = pendingSize;
+                    pendingSize = 0;
+                    addFrame(frames, pending, 0, size);
+                } else {
+                    addFrame(frames, array, frameStart, i - frameStart);
+                }
+                frameStart = i + 1;
+            }
+            if (frameStart < end && !discarding) {
+                if (pendingSize + end - frameStart > MAX_FRAME_SIZE) {
+                    // the rest of it is discarded up to the next delimiter
+                    pendingSize = 0;
+                    discarding = true;
+                    skipOversized();
+                } else {
+                    appendPending(array, frameStart, end - frameStart);
+                }
+            }
+            if (sink != null) {
+                if (!frames.isEmpty()) sink.accept(frames);
+                return Collections.emptyList();
+            }
+            return frames;
+        }
 
+        /**
+         * @return amount of bytes of the incomplete frame waiting for the next read
+         */
+        int getPendingSize() {
+            return pendingSize;
+        }
 
+        /**
+         * @return amount of frames skipped for not being valid json or being too big
+         */
+        long getSkippedFrames() {
+            return skippedFrames;
+        }
 
+        private void appendPending(byte[] src, int offset, int length) {
+            int size = pendingSize + length;
+            if (size > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(size, pending.length * 2));
+            }
+            System.arraycopy(src, offset, pending, pendingSize, length);
+            pendingSize = size;
+        }
 
-    private interface MsgListener{
-        void onMsgReceived(String jsonStr);
-        void onMsgFail(String jsonStr);
-    }
+        private void skipOversized() {
+            skippedFrames++;
+            log.warn("Frame bigger than " + MAX_FRAME_SIZE + " bytes skipped");
+        }
 
-    public class MsgFuture extends BaseMsgFuture<String> implements MsgListener {
-        @Override
-        public void onMsgReceived(String jsonStr) {
+        private void addFrame(List<Object> frames, byte[] src, int offset, int length) {
+            // skip whitespace, an empty line is not a message
+            while (length > 0 && isWhitespace(src[offset])) {
+                offset++;
+                length--;
+            }
+            while (length > 0 && isWhitespace(src[offset + length - 1])) {
+                length--;
+            }
+            if (length == 0) return;
             try {
-                synchronized (reentrantLock) {
-                    JSONObject jsonObject = new JSONObject(jsonStr);
-                    this.messageId = jsonObject.getInt("id");
-                    this.status = 200;
-                    object = jsonStr;
-                    reentrantLock.notifyAll();
-                }
-                if (listener != null) {
-                    listener.onAction(messageId, jsonStr);
+                String json = new String(src, offset, length, StandardCharsets.UTF_8);
+                if (src[offset] == '[') {
+                    frames.add(new JSONArray(json));
+                } else {
+                    frames.add(new JSONObject(json));
                 }
             } catch (JSONException e) {
-                e.printStackTrace();
+                skippedFrames++;
+                log.warn("Malformed frame skipped, " + e.getMessage());
+            }
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\r' || b == '\t';
+        }
+    }
+
+    /**
+     * Parse the response of a method, notify the listeners and return the parsed value
+     * used to complete the request future.
+     *
+     * @param <M> message sent
+     */
+    public interface ResponseHandler<M extends BaseMsg<?>> {
+
+        /**
+         * @param jsonObject response or notification
+         * @param msg request message, null for notifications
+         * @return parsed response
+         */
+        Object handle(JSONObject jsonObject, M msg) throws JSONException;
+    }
+
+    /**
+     * Single message or batch waiting to be written.
+     */
+    static class OutgoingFrame {
+
+        private final List<PendingRequest<?>> requests;
+        /** Write the messages as a json array */
+        private final boolean batch;
+        /** Append the frame delimiter */
+        private final boolean delimited;
+        private final WriteFuture writeFuture;
+
+        OutgoingFrame(List<PendingRequest<?>> requests, boolean batch, boolean delimited, WriteFuture writeFuture) {
+            this.requests = requests;
+            this.batch = batch;
+            this.delimited = delimited;
+            this.writeFuture = writeFuture;
+        }
+
+        /**
+         * @return true if every request of the frame was cancelled by its caller
+         */
+        boolean isCancelled() {
+            for (PendingRequest<?> request : requests) {
+                if (!request.getFuture().isCancelled()) return false;
             }
+            return true;
+        }
+
+        void write(JsonByteWriter writer) {
+            if (batch) writer.beginArray();
+            for (PendingRequest<?> request : requests) {
+                request.getMsg().write(writer);
+            }
+            if (batch) writer.endArray();
+            if (delimited) writer.raw((byte) '\n');
         }
 
         @Override
-        public void onMsgFail(String jsonStr) {
+        public String toString() {
+            return "OutgoingFrame{" +
+                    "requests=" + requests.size() +
+                    ", batch=" + batch +
+                    '}';
+        }
+    }
+
+    /**
+     * Encode the outgoing frames straight into a reusable direct buffer.
+     *
+     * The session writer encodes the next request only after the previous buffer was completely written,
+     * so a single buffer per session is enough. One encoder per session, it is not thread safe.
+     */
+    static class FrameEncoder extends ProtocolEncoder<OutgoingFrame> {
+
+        static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+        private final JsonByteWriter writer = new JsonByteWriter(INITIAL_BUFFER_SIZE);
+        /** Counts the bytes written, can be null */
+        private final PeerMetrics metrics;
+
+        FrameEncoder() {
+            this(null);
+        }
+
+        FrameEncoder(PeerMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public ByteBuffer encode(OutgoingFrame frame) throws InvalidProtocolViolationException {
             try {
-                synchronized (reentrantLock) {
-                    JSONObject jsonObject = new JSONObject(jsonStr);
-                    this.messageId = jsonObject.getInt("id");
-                    this.status = 501;
-                    this.statusDetail = jsonStr;
-                    reentrantLock.notifyAll();
-                }
-                if (listener != null) {
-                    listener.onFail(messageId, status, statusDetail);
-                }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                writer.reset();
+                frame.write(writer);
+                ByteBuffer buffer = writer.getBuffer();
+                if (metrics != null) metrics.onBytesOut(buffer.position());
+                return buffer;
+            } catch (RuntimeException e) {
+                throw new InvalidProtocolViolationException("error encoder",e);
             }
         }
     }
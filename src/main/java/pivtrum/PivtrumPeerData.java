@@ -10,6 +10,8 @@ public class PivtrumPeerData {
     private int tcpPort;
     private int sslPort;
     private long prunningLimit;
+    /** Server max protocol version, null if it is unknown */
+    private String version;
 
     public PivtrumPeerData(String host, int tcpPort, int sslPort) {
         this.host = host;
@@ -17,6 +19,12 @@ public class PivtrumPeerData {
         this.sslPort = sslPort;
     }
 
+    public PivtrumPeerData(String host, int tcpPort, int sslPort, String version, long prunningLimit) {
+        this(host, tcpPort, sslPort);
+        this.version = version;
+        this.prunningLimit = prunningLimit;
+    }
+
     public String getHost() {
         return host;
     }
@@ -29,6 +37,14 @@ public class PivtrumPeerData {
         return sslPort;
     }
 
+    public String getVersion() {
+        return version;
+    }
+
+    public long getPrunningLimit() {
+        return prunningLimit;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof PivtrumPeerData)) return false;
@@ -42,6 +58,11 @@ public class PivtrumPeerData {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * host.hashCode() + tcpPort;
+    }
+
     @Override
     public String toString() {
         return "PivtrumPeerData{" +
@@ -49,6 +70,7 @@ public class PivtrumPeerData {
                 ", tcpPort=" + tcpPort +
                 ", sslPort=" + sslPort +
                 ", prunningLimit=" + prunningLimit +
+                ", version='" + version + '\'' +
                 '}';
     }
 }
@@ -1,27 +1,58 @@
 package pivtrum;
 
 import org.pivxj.core.Address;
+import org.pivxj.core.AddressFormatException;
 import org.pivxj.core.CoinDefinition;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Transaction;
 import org.furszy.client.IoManager;
 import org.furszy.client.exceptions.ConnectionFailureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import pivtrum.exceptions.InvalidPeerVersion;
 import pivtrum.listeners.AddressListener;
 import pivtrum.listeners.PeerDataListener;
 import pivtrum.listeners.PeerListener;
+import pivtrum.listeners.QuorumListener;
+import pivtrum.listeners.UnspentListener;
+import pivtrum.messages.Method;
 import pivtrum.messages.VersionMsg;
+import pivtrum.messages.responses.Balance;
+import pivtrum.messages.responses.Header;
 import pivtrum.messages.responses.StatusHistory;
 import pivtrum.messages.responses.Unspent;
+import pivtrum.utility.AddressKey;
+import pivtrum.utility.ConsistentHashRing;
 import pivtrum.utility.TxHashHeightWrapper;
 import store.AddressBalance;
 import store.AddressNotFoundException;
@@ -52,7 +83,7 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
     /** Connection manager */
     private IoManager ioManager;
     /** Trusted peer */
-    private PivtrumPeer trustedPeer;
+    private volatile PivtrumPeer trustedPeer;
     // Currently active peers.
     private final CopyOnWriteArrayList<PivtrumPeer> peers;
     // Currently connecting peers.
@@ -69,11 +100,35 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
     /** How many milliseconds to wait after receiving a pong before sending another ping. */
     public static final long DEFAULT_PING_INTERVAL_MSEC = 2000;
     private long pingIntervalMsec = DEFAULT_PING_INTERVAL_MSEC;
+    /** Keepalive pings and reconnections */
+    private ScheduledExecutorService scheduler;
+    /** Default delay before the first reconnection, doubled on every failed attempt */
+    public static final long DEFAULT_RECONNECT_BASE_DELAY_MSEC = 1000;
+    /** Default max delay between reconnections */
+    public static final long DEFAULT_RECONNECT_MAX_DELAY_MSEC = 60000;
+    private long reconnectBaseDelayMsec = DEFAULT_RECONNECT_BASE_DELAY_MSEC;
+    private long reconnectMaxDelayMsec = DEFAULT_RECONNECT_MAX_DELAY_MSEC;
+    /** Dropped peers being reconnected -> failed attempts */
+    private final ConcurrentHashMap<PivtrumPeer, Integer> reconnectAttempts = new ConcurrentHashMap<>();
+    /** Dropped peers connected again */
+    private final AtomicLong reconnects = new AtomicLong();
+    /** Default max amount of non trusted peers asked to confirm an address change */
+    public static final int DEFAULT_CONFIRMATION_PEERS = 4;
+    private int confirmationPeers = DEFAULT_CONFIRMATION_PEERS;
     /** Wallet manager */
     private WalletManager walletManager;
     /** Address-status store */
     private AddressStore addressStore;
-    private CopyOnWriteArrayList<String> watchedAddresses = new CopyOnWriteArrayList<>();
+    /** Subscribed addresses, keyed by hash160 */
+    private final Set<AddressKey> watchedAddresses = ConcurrentHashMap.newKeySet();
+    /** Default time a status change waits for more changes before the refresh cycle */
+    public static final long DEFAULT_REFRESH_DEBOUNCE_MSEC = 250;
+    private long refreshDebounceMsec = DEFAULT_REFRESH_DEBOUNCE_MSEC;
+    /** Changed addresses waiting for the next refresh cycle */
+    private final Set<String> pendingRefresh = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+    /** Addresses with a new status stored and its history not received yet, refreshed again after a reconnection */
+    private final Set<String> refreshingAddresses = ConcurrentHashMap.newKeySet();
     /** Addresses waiting for an update, address-  */
     //private List<String> waitingAddressses = new ConcurrentHashMap();
     /** Minumum amount of server in which the app is going to broadcast a tx */
@@ -81,6 +136,40 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
     /** Address balance listener */
     private CopyOnWriteArrayList<AddressListener> addressListeners = new CopyOnWriteArrayList<>();
     private CopyOnWriteArrayList<PeerListener> peerConnectionListeners = new CopyOnWriteArrayList<>();
+    private CopyOnWriteArrayList<UnspentListener> unspentListeners = new CopyOnWriteArrayList<>();
+    /** Peer listeners executor, keeps the store writes and the listeners out of the I/O threads */
+    private ExecutorService listenersExecutor = newListenersExecutor();
+    /** Balance and history verification, null if every response is trusted to the trusted peer */
+    private volatile QuorumVerifier quorumVerifier;
+    /** Max amount of peers asked on every quorum verification */
+    private int maxQuorumPeers = Integer.MAX_VALUE;
+    private CopyOnWriteArrayList<QuorumListener> quorumListeners = new CopyOnWriteArrayList<>();
+    /** Max amount of requests waiting for a response on every peer */
+    private int maxInFlightRequests = PivtrumPeer.DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+    /** Default max amount of connected and connecting non trusted peers */
+    public static final int DEFAULT_MAX_PEERS = 8;
+    private int maxPeers = DEFAULT_MAX_PEERS;
+    /** Servers discovered on previous runs, null if nothing is persisted */
+    private PeerCache peerCache;
+    /** Header download, null if the headers are not synced */
+    private HeaderSync headerSync;
+    private ExecutorService headersExecutor;
+    /** Decoded transactions, null if the transaction fetch is not enabled */
+    private TxFetcher txFetcher;
+    /** Merkle proofs of the unspents, null if the header sync is not enabled */
+    private UnspentVerifier unspentVerifier;
+    private ExecutorService merkleExecutor;
+    /** Max amount of servers dialed at once on start to select the trusted peer, 1 to dial only the trusted server */
+    private int startCandidates = 1;
+    /** Servers racing to become the trusted peer -> whether it's an address of the trusted server */
+    private final ConcurrentHashMap<PivtrumPeer, Boolean> candidatePeers = new ConcurrentHashMap<>();
+    /** Subscriptions spread over the connected peers, null if every address is subscribed on the trusted peer */
+    private volatile ConsistentHashRing<PivtrumPeer> shardRing;
+    /** Amount of peers subscribed to every critical address */
+    private int criticalReplicas = 1;
+    private final Set<AddressKey> criticalAddresses = ConcurrentHashMap.newKeySet();
+    /** Connected shard peers -> addresses subscribed on its current session */
+    private final ConcurrentHashMap<PivtrumPeer, Set<AddressKey>> shardSubscriptions = new ConcurrentHashMap<>();
 
     public PivtrumPeergroup(NetworkConf networkConf, WalletManager walletManager, AddressStore addressStore) throws IOException {
         this.peers = new CopyOnWriteArrayList<>();
@@ -88,7 +177,7 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         this.networkConf = networkConf;
         this.walletManager = walletManager;
         this.addressStore = addressStore;
-        this.ioManager = new IoManager(1,1);
+        this.ioManager = new IoManager(networkConf.getIoConnectorThreads(),networkConf.getIoProcessorThreads());
         // create the version message that the manager will always use
         versionMsg = new VersionMsg(networkConf.getClientName(),networkConf.getMaxProtocolVersion(),networkConf.getMinProtocolVersion());
     }
@@ -97,7 +186,7 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         this.peers = new CopyOnWriteArrayList<>();
         this.pendingPeers = new CopyOnWriteArrayList<>();
         this.networkConf = networkConf;
-        this.ioManager = new IoManager(1,1);
+        this.ioManager = new IoManager(networkConf.getIoConnectorThreads(),networkConf.getIoProcessorThreads());
         // create the version message that the manager will always use
         versionMsg = new VersionMsg(networkConf.getClientName(),networkConf.getMaxProtocolVersion(),networkConf.getMinProtocolVersion());
     }
@@ -110,10 +199,175 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         this.addressStore = addressStore;
     }
 
+    /**
+     * Max amount of requests written to every peer without a response, the rest are queued on the peer.
+     * Must be set before start.
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * Max amount of connected and connecting non trusted peers.
+     */
+    public void setMaxPeers(int maxPeers) {
+        this.maxPeers = maxPeers;
+    }
+
+    /**
+     * Dial several servers at once on start: every resolved address of the trusted server and then
+     * the servers of the network configuration, the peer cache servers are never promoted. The first one finishing the version handshake is promoted to trusted peer,
+     * the other addresses of the trusted server are closed and the rest continue as non trusted peers.
+     * Must be set before start.
+     *
+     * @param startCandidates -> max amount of servers dialed, 1 to dial only the trusted server.
+     */
+    public void setStartCandidates(int startCandidates) {
+        if (startCandidates < 1) throw new IllegalArgumentException("startCandidates must be positive");
+        this.startCandidates = startCandidates;
+    }
+
+    /**
+     * Time a status change waits for more changes before requesting the balances and histories,
+     * every address changed in the meantime is refreshed once on the same batch frames. 0 to refresh right away.
+     */
+    public void setRefreshDebounceMsec(long refreshDebounceMsec) {
+        this.refreshDebounceMsec = refreshDebounceMsec;
+    }
+
+    /**
+     * Reconnection delays, every failed attempt doubles the delay up to the max.
+     * The delay is randomized between the half and the full value to spread the reconnections.
+     */
+    public void setReconnectDelays(long baseDelayMsec, long maxDelayMsec) {
+        if (baseDelayMsec <= 0 || maxDelayMsec < baseDelayMsec) throw new IllegalArgumentException("Invalid reconnect delays");
+        this.reconnectBaseDelayMsec = baseDelayMsec;
+        this.reconnectMaxDelayMsec = maxDelayMsec;
+    }
+
+    /**
+     * Keep a local header chain, downloaded from the connected peers every time the trusted peer connects.
+     * Must be set before start.
+     *
+     * @param params
+     * @param headerStore -> opened by the caller, flushed on shutdown.
+     */
+    public void enableHeaderSync(NetworkParameters params, HeaderStore headerStore) {
+        headersExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PivtrumPeergroup-headers");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        headerSync = new HeaderSync(params, headerStore, this::getConnectedPeers, headersExecutor);
+        merkleExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PivtrumPeergroup-merkle-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        unspentVerifier = new UnspentVerifier(headerStore, merkleExecutor);
+    }
+
+    /**
+     * Download the headers up to the peers chain tip, the end of the chain is found on the way
+     * if no peer announced its height yet.
+     *
+     * @return future completed with the stored tip height
+     */
+    public CompletableFuture<Long> syncHeaders() {
+        if (headerSync == null) throw new IllegalStateException("Header sync not enabled");
+        long chainHeight = 0;
+        for (PivtrumPeer peer : getConnectedPeers()) {
+            chainHeight = Math.max(chainHeight, peer.getHeight());
+        }
+        return headerSync.sync(chainHeight > 0 ? chainHeight : Long.MAX_VALUE);
+    }
+
+    public HeaderStore getHeaderStore() {
+        return headerSync != null ? headerSync.getStore() : null;
+    }
+
+    /**
+     * Persist the discovered servers and their connection stats, the best ones are connected
+     * in parallel with the trusted peer on start.
+     * Must be set before start, the cache is loaded by the caller.
+     */
+    public void setPeerCache(PeerCache peerCache) {
+        this.peerCache = peerCache;
+    }
+
+    /**
+     * Executor in charge of the peers callbacks, the address store writes and the listeners notification.
+     * Must be set before start, a single thread executor keeps the callbacks ordered.
+     */
+    public void setListenersExecutor(ExecutorService listenersExecutor) {
+        this.listenersExecutor.shutdown();
+        this.listenersExecutor = listenersExecutor;
+    }
+
+    private static ExecutorService newListenersExecutor(){
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PivtrumPeergroup-listeners");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Verify the balance and history of every address change with a quorum of peers instead of the trusted peer.
+     * The verification is used only while at least quorum peers are connected.
+     *
+     * @param quorum -> amount of peers which must agree, 0 to disable it.
+     * @param maxQuorumPeers -> max amount of peers asked on every verification.
+     */
+    public void setQuorum(int quorum, int maxQuorumPeers) {
+        if (quorum > maxQuorumPeers) throw new IllegalArgumentException("quorum bigger than the peers asked");
+        this.maxQuorumPeers = maxQuorumPeers;
+        if (quorum <= 0) {
+            this.quorumVerifier = null;
+            return;
+        }
+        QuorumVerifier verifier = new QuorumVerifier(quorum);
+        verifier.addQuorumListener(new QuorumListener() {
+            @Override
+            public void onDisagreement(String address, Method method, Map<PivtrumPeer, Object> responses, boolean quorumReached) {
+                for (QuorumListener quorumListener : quorumListeners) {
+                    quorumListener.onDisagreement(address, method, responses, quorumReached);
+                }
+            }
+        });
+        this.quorumVerifier = verifier;
+    }
+
+    public void addQuorumListener(QuorumListener quorumListener) {
+        this.quorumListeners.add(quorumListener);
+    }
+
+    public void removeQuorumListener(QuorumListener quorumListener) {
+        this.quorumListeners.remove(quorumListener);
+    }
+
     public void addAddressListener(AddressListener addressListener) {
         this.addressListeners.add(addressListener);
     }
 
+    public void addUnspentListener(UnspentListener unspentListener) {
+        this.unspentListeners.add(unspentListener);
+    }
+
+    public void removeUnspentListener(UnspentListener unspentListener) {
+        this.unspentListeners.remove(unspentListener);
+    }
+
     public void addPeerConnectionListener(PeerListener peerListener){
         this.peerConnectionListeners.add(peerListener);
     }
@@ -132,13 +386,23 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
             log.info("Starting PivtrumPeergroup");
             isActive = true;
             // todo: first part discovery..
+            // before the first connection, a failed one is rescheduled on it
+            startPings();
             /*
             * Connect to the trusted node and get servers from it.
             */
-            trustedPeer = new PivtrumPeer(networkConf.getTrustedServer(), ioManager,versionMsg);
-            trustedPeer.addPeerListener(this);
-            trustedPeer.addPeerDataListener(this);
-            trustedPeer.connect();
+            if (startCandidates > 1) {
+                connectCandidates();
+            } else {
+                trustedPeer = createPeer(networkConf.getTrustedServer());
+                trustedPeer.connect();
+            }
+            // known-good servers from previous runs, no need to wait for the trusted peer
+            if (peerCache != null) {
+                for (PivtrumPeerData peerData : peerCache.getBestPeers(maxPeers)) {
+                    connectPeer(peerData);
+                }
+            }
 
         }catch (Exception e){
             isRunning = false;
@@ -153,42 +417,198 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         return isRunning;
     }
 
+    /**
+     * Dial every start candidate, the trusted peer is selected once the first handshake finishes.
+     */
+    private void connectCandidates() throws ConnectionFailureException {
+        List<PivtrumPeerData> candidates = new ArrayList<>(startCandidates);
+        PivtrumPeerData trustedServer = networkConf.getTrustedServer();
+        try {
+            for (InetAddress address : InetAddress.getAllByName(trustedServer.getHost())) {
+                if (candidates.size() == startCandidates) break;
+                candidates.add(new PivtrumPeerData(address.getHostAddress(), trustedServer.getTcpPort(), trustedServer.getSslPort()));
+            }
+        } catch (UnknownHostException e) {
+            log.info("Trusted server not resolved, " + trustedServer.getHost());
+        }
+        int trustedAddresses = candidates.size();
+        // only configured servers, the cached ones are not trusted enough to take the trusted peer place
+        for (InetSocketAddress inetSocketAddress : networkConf.getNetworkServers()) {
+            if (candidates.size() == startCandidates) break;
+            PivtrumPeerData other = new PivtrumPeerData(inetSocketAddress.getHostString(), inetSocketAddress.getPort(), 0);
+            if (!candidates.contains(other) && !other.equals(trustedServer)) candidates.add(other);
+        }
+        if (candidates.isEmpty()) throw new ConnectionFailureException("No start candidates, trusted server: " + trustedServer);
+        log.info("Dialing " + candidates.size() + " start candidates");
+        for (int i = 0; i < candidates.size(); i++) {
+            PivtrumPeer peer = createPeer(candidates.get(i));
+            candidatePeers.put(peer, i < trustedAddresses);
+        }
+        for (PivtrumPeer peer : new ArrayList<>(candidatePeers.keySet())) {
+            try {
+                peer.connect();
+            } catch (Exception e) {
+                log.info("Candidate connection fail, " + peer.getPeerData(), e);
+                onCandidateFailure(peer);
+            }
+        }
+    }
+
+    /**
+     * Promote the first candidate to finish the handshake, must be called holding the peergroup lock.
+     */
+    private void promoteCandidate(PivtrumPeer winner) {
+        log.info("Start candidate promoted to trusted peer, " + winner.getPeerData());
+        trustedPeer = winner;
+        candidatePeers.remove(winner);
+        for (Map.Entry<PivtrumPeer, Boolean> entry : candidatePeers.entrySet()) {
+            PivtrumPeer peer = entry.getKey();
+            if (entry.getValue() || peers.size() + pendingPeers.size() >= maxPeers) {
+                // same server than the trusted peer or no room for it
+                peer.close();
+            } else {
+                pendingPeers.add(peer);
+            }
+        }
+        candidatePeers.clear();
+    }
+
+    private void onCandidateFailure(PivtrumPeer peer) {
+        if (candidatePeers.remove(peer) != null && candidatePeers.isEmpty() && trustedPeer == null) {
+            log.error("Every start candidate failed");
+            isActive = false;
+            isRunning = false;
+        }
+    }
+
+    /**
+     * Connect a non trusted peer if it's not already connected or connecting and the max amount of peers is not reached.
+     */
+    private synchronized void connectPeer(PivtrumPeerData peerData){
+        // the peers waiting for a reconnection keep their slot
+        int reconnecting = 0;
+        for (PivtrumPeer peer : reconnectAttempts.keySet()) {
+            if (peer.getPeerData().equals(peerData)) return;
+            if (peer != trustedPeer) reconnecting++;
+        }
+        if (peers.size() + pendingPeers.size() + reconnecting >= maxPeers) return;
+        if (peerData.equals(networkConf.getTrustedServer())) return;
+        // a promoted start candidate is one of the network servers
+        if (trustedPeer != null && trustedPeer.getPeerData().equals(peerData)) return;
+        for (PivtrumPeer peer : candidatePeers.keySet()) {
+            if (peer.getPeerData().equals(peerData)) return;
+        }
+        for (PivtrumPeer peer : peers) {
+            if (peer.getPeerData().equals(peerData)) return;
+        }
+        for (PivtrumPeer peer : pendingPeers) {
+            if (peer.getPeerData().equals(peerData)) return;
+        }
+        PivtrumPeer peer = createPeer(peerData);
+        pendingPeers.add(peer);
+        try {
+            peer.connect();
+        } catch (Exception e) {
+            log.info("Connection fail, " + peerData, e);
+            pendingPeers.remove(peer);
+            if (peerCache != null) peerCache.onConnectionFailure(peerData);
+        }
+    }
+
+    /**
+     * Merge the servers announced by the trusted peer, persist them and connect the new ones.
+     */
+    private void onPeersDiscovered(List<PivtrumPeerData> discovered){
+        int added = networkConf.addDiscoveredPeers(discovered);
+        log.info("Peers discovered: " + discovered.size() + ", new: " + added);
+        if (peerCache != null) {
+            peerCache.addAll(discovered);
+            savePeerCache();
+        }
+        for (PivtrumPeerData peerData : discovered) {
+            if (peerData.getTcpPort() > 0) connectPeer(peerData);
+        }
+    }
+
+    private void savePeerCache(){
+        try {
+            peerCache.save();
+        } catch (IOException e) {
+            log.warn("Peer cache save fail", e);
+        }
+    }
+
+    private PivtrumPeer createPeer(PivtrumPeerData peerData){
+        PivtrumPeer peer = new PivtrumPeer(peerData,ioManager,versionMsg);
+        peer.setListenersExecutor(listenersExecutor);
+        peer.setMaxInFlightRequests(maxInFlightRequests);
+        peer.addPeerListener(this);
+        peer.addPeerDataListener(this);
+        return peer;
+    }
+
 
     @Override
     public void onConnected(PivtrumPeer pivtrumPeer) {
         try {
+            synchronized (this) {
+                if (trustedPeer == null && candidatePeers.containsKey(pivtrumPeer)) {
+                    promoteCandidate(pivtrumPeer);
+                }
+            }
+            boolean reconnected = reconnectAttempts.remove(pivtrumPeer) != null;
+            if (reconnected) reconnects.incrementAndGet();
             if (pivtrumPeer == trustedPeer) {
-                log.info("trusted peer connected");
+                log.info(reconnected ? "trusted peer reconnected" : "trusted peer connected");
                 // trusted peer connected.
                 isRunning = true;
 
-                // notify -> todo: this should be on other thread.
+                // notify, already on the listeners executor
                 for (PeerListener peerConnectionListener : peerConnectionListeners) {
                     peerConnectionListener.onConnected(pivtrumPeer);
                 }
 
+                if (headerSync != null) {
+                    syncHeaders().whenComplete((tip, e) -> {
+                        if (e != null) log.info("Header sync fail", e);
+                    });
+                }
                 // Get more peers from the trusted server to use it later
-                trustedPeer.getPeers();
-                // Suscribe watched addresses to the trusted server
+                trustedPeer.getPeers().whenCompleteAsync((discovered, e) -> {
+                    if (e != null) {
+                        log.info("getPeers fail", e);
+                    } else {
+                        onPeersDiscovered(discovered);
+                    }
+                }, listenersExecutor);
+                // Suscribe watched addresses to the trusted server in one batched pass, the subscription responses
+                // are compared with the store and only the changed addresses are refreshed.
                 Map<String,AddressBalance> map = addressStore.map();
-                watchedAddresses.addAll(map.keySet());
-                if (!map.isEmpty()) {
-                    trustedPeer.subscribeAddresses(map.keySet());
+                if (map != null) {
+                    for (String address : map.keySet()) {
+                        try {
+                            watchedAddresses.add(AddressKey.fromBase58(address));
+                        } catch (AddressFormatException e) {
+                            log.warn("Invalid stored address: " + address, e);
+                        }
+                    }
+                }
+                if (shardRing != null) {
+                    onShardPeerJoined(trustedPeer);
+                } else if (!watchedAddresses.isEmpty()) {
+                    trustedPeer.subscribeAddresses(toBase58(watchedAddresses));
                 }
 
                 // connect to non trusted peers
                 for (InetSocketAddress inetSocketAddress : networkConf.getNetworkServers()) {
-                    PivtrumPeerData peerData = new PivtrumPeerData(inetSocketAddress.getHostName(),inetSocketAddress.getPort(),0);
-                    PivtrumPeer peer = new PivtrumPeer(peerData,ioManager,versionMsg);
-                    peer.addPeerListener(this);
-                    peer.addPeerDataListener(this);
-                    pendingPeers.add(peer);
-                    peer.connect();
+                    connectPeer(new PivtrumPeerData(inetSocketAddress.getHostString(),inetSocketAddress.getPort(),0));
                 }
             }else {
                 log.info("Non trusted peer connected, "+pivtrumPeer.getPeerData());
                 pendingPeers.remove(pivtrumPeer);
                 peers.add(pivtrumPeer);
+                if (peerCache != null) peerCache.onConnected(pivtrumPeer.getPeerData());
+                if (shardRing != null) onShardPeerJoined(pivtrumPeer);
             }
         }catch (Exception e){
             e.printStackTrace();
@@ -197,11 +617,83 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
 
     @Override
     public void onDisconnected(PivtrumPeer pivtrumPeer) {
+        if (!isActive) return;
+        if (pivtrumPeer == trustedPeer) {
+            log.info("trusted peer disconnected");
+            for (PeerListener peerConnectionListener : peerConnectionListeners) {
+                peerConnectionListener.onDisconnected(pivtrumPeer);
+            }
+            if (shardRing != null) onShardPeerLeft(pivtrumPeer);
+            scheduleReconnect(pivtrumPeer);
+        } else if (peers.remove(pivtrumPeer) || reconnectAttempts.containsKey(pivtrumPeer)) {
+            log.info("Non trusted peer disconnected, "+pivtrumPeer.getPeerData());
+            if (shardRing != null) onShardPeerLeft(pivtrumPeer);
+            scheduleReconnect(pivtrumPeer);
+        } else if (candidatePeers.containsKey(pivtrumPeer)) {
+            synchronized (this) {
+                onCandidateFailure(pivtrumPeer);
+            }
+        } else if (pendingPeers.remove(pivtrumPeer)) {
+            // dropped before the handshake
+            if (peerCache != null) peerCache.onConnectionFailure(pivtrumPeer.getPeerData());
+        }
+    }
+
+    /**
+     * Reconnect the peer after a jittered exponential backoff.
+     */
+    private void scheduleReconnect(final PivtrumPeer pivtrumPeer) {
+        int attempt = reconnectAttempts.merge(pivtrumPeer, 1, Integer::sum);
+        long delay = backoffDelay(attempt, reconnectBaseDelayMsec, reconnectMaxDelayMsec);
+        log.info("Reconnecting " + pivtrumPeer.getPeerData().getHost() + " in " + delay + " ms, attempt " + attempt);
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reconnect(pivtrumPeer);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            reconnectAttempts.remove(pivtrumPeer);
+        }
+    }
+
+    private void reconnect(PivtrumPeer pivtrumPeer) {
+        if (!isActive || !reconnectAttempts.containsKey(pivtrumPeer)) return;
+        try {
+            pivtrumPeer.connect();
+        } catch (Exception e) {
+            log.info("Reconnection fail, " + pivtrumPeer.getPeerData().getHost(), e);
+            scheduleReconnect(pivtrumPeer);
+        }
+    }
 
+    /**
+     * @return random delay between the half and the full exponential delay of the attempt.
+     */
+    static long backoffDelay(int attempt, long baseDelayMsec, long maxDelayMsec) {
+        long delay = baseDelayMsec << Math.min(attempt - 1, 20);
+        if (delay <= 0 || delay > maxDelayMsec) delay = maxDelayMsec;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
     }
 
     @Override
     public void onExceptionCaught(PivtrumPeer pivtrumPeer, Exception e) {
+        if (e instanceof ConnectionFailureException && reconnectAttempts.containsKey(pivtrumPeer)) {
+            scheduleReconnect(pivtrumPeer);
+            return;
+        }
+        if (candidatePeers.containsKey(pivtrumPeer)) {
+            synchronized (this) {
+                onCandidateFailure(pivtrumPeer);
+            }
+            return;
+        }
+        if (pivtrumPeer != trustedPeer && pendingPeers.remove(pivtrumPeer)) {
+            // the connection or the handshake failed
+            if (peerCache != null) peerCache.onConnectionFailure(pivtrumPeer.getPeerData());
+        }
         if (e instanceof InvalidPeerVersion){
             if (pivtrumPeer == trustedPeer){
                 // We are fuck. Invalid trusted peer version..
@@ -224,29 +716,18 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
                 // nothing
             }
             if (statusDb == null) statusDb = new AddressBalance();
-            if (statusDb.getStatus()==null || !status.equals(statusDb.getStatus())){
+            // an address whose refresh was lost with the connection is refreshed again
+            if (statusDb.getStatus()==null || !status.equals(statusDb.getStatus()) || refreshingAddresses.contains(address)){
 
                 // this should done be when the balance is updated
-                log.info("inserting new address-status");
+                log.debug("inserting new address-status");
                 statusDb.setStatus(status);
                 statusDb.addStatusConfirmation();
                 addressStore.insert(address,statusDb);
+                refreshingAddresses.add(address);
 
-                // first request balance
-                // notify
-                // todo: here i should request the tx for that address and recalculate the balance.
-                // request unspent of address change
-                trustedPeer.getBalance(address);
-                trustedPeer.getHistory(address);
-                // todo: mejorar esto con request en batch -> simplificaria la cantidad de request a la mitad.
-                // request status to other peers - 4 max
-                for (PivtrumPeer peer : peers) {
-                    peer.getHistory(address);
-                }
-                // request balance to other peers - 4 max
-                for (PivtrumPeer peer : peers) {
-                    peer.getBalance(address);
-                }
+                // the balance and history are requested on the next refresh cycle
+                scheduleRefresh(address);
             }
         } catch (CantInsertAddressException e) {
             e.printStackTrace();
@@ -254,29 +735,114 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         }
     }
 
-    @Override
-    public void onListUnpent(PivtrumPeer pivtrumPeer,String address, List<Unspent> unspents) {
-        log.info("onListUnspent: "+address);
-        // now i should check this unspent tx requesting the merkle root.
+    private void scheduleRefresh(String address) {
+        pendingRefresh.add(address);
+        if (refreshDebounceMsec <= 0 || scheduler == null) {
+            flushRefresh();
+            return;
+        }
+        if (refreshScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushRefresh();
+                    }
+                }, refreshDebounceMsec, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                refreshScheduled.set(false);
+            }
+        }
+    }
 
-        // then request the header to multiple peers and validate that with the txHash.
-        List<Long> heightOfHeadersToRequest = new ArrayList<>();
-        for (Unspent unspent : unspents) {
-            if (!heightOfHeadersToRequest.contains(unspent.getBlockHeight())){
-                heightOfHeadersToRequest.add(unspent.getBlockHeight());
+    /**
+     * Request the balance and history of every changed address: batch frames to the trusted peer
+     * and to the best scored peers, or a quorum verification per address.
+     */
+    private void flushRefresh() {
+        refreshScheduled.set(false);
+        List<String> addresses = new ArrayList<>(pendingRefresh.size());
+        for (Iterator<String> iterator = pendingRefresh.iterator(); iterator.hasNext(); ) {
+            addresses.add(iterator.next());
+            iterator.remove();
+        }
+        if (addresses.isEmpty()) return;
+        log.info("Refreshing addresses: " + addresses.size());
+        try {
+            if (isQuorumEnabled()) {
+                for (String address : addresses) {
+                    refreshWithQuorum(address);
+                }
+                return;
             }
+            PivtrumPeer peer = trustedPeer;
+            if (peer != null) peer.refreshAddresses(addresses);
+            // request status and balance to the best scored peers
+            for (PivtrumPeer confirmationPeer : getBestPeers(peers, confirmationPeers)) {
+                confirmationPeer.refreshAddresses(addresses);
+            }
+        } catch (Exception e) {
+            log.error("Refresh error", e);
         }
-        trustedPeer.getHeader(heightOfHeadersToRequest.get(0));
+    }
+
+    @Override
+    public void onListUnpent(PivtrumPeer pivtrumPeer,String address, List<Unspent> unspents) {
+        if (log.isDebugEnabled()) log.debug("onListUnspent: "+address);
+        // check the unspents with their merkle proofs against the local headers
+        if (unspentVerifier == null || unspents.isEmpty()) return;
+        unspentVerifier.verify(pivtrumPeer, unspents).whenCompleteAsync((verified, e) -> {
+            if (e != null) {
+                log.info("Unspents verification fail, address: " + address, e);
+            } else {
+                if (log.isDebugEnabled()) log.debug("Verified unspents, address: " + address + ", " + verified.size() + " of " + unspents.size());
+                List<Unspent> unverified = new ArrayList<>(unspents.size() - verified.size());
+                for (Unspent unspent : unspents) {
+                    if (!unspent.isSpendable()) unverified.add(unspent);
+                }
+                for (UnspentListener unspentListener : unspentListeners) {
+                    unspentListener.onUnspentsVerified(address, verified, unverified);
+                }
+            }
+        }, listenersExecutor);
     }
 
     public void addWatchedAddress(Address address) {
+        addWatchedAddresses(Collections.singletonList(address));
+    }
+
+    /**
+     * Watch the addresses, the new ones are inserted on the store and subscribed in batches.
+     *
+     * @param addresses
+     */
+    public void addWatchedAddresses(Collection<Address> addresses) {
         try {
-            String addressStr = address.toBase58();
-            if (watchedAddresses.contains(addressStr))return;
-            if (!addressStore.contains(addressStr)) {
-                addressStore.insert(addressStr,new AddressBalance());
+            Set<String> added = new HashSet<>();
+            List<AddressKey> addedKeys = new ArrayList<>();
+            for (Address address : addresses) {
+                AddressKey key = AddressKey.of(address);
+                if (!watchedAddresses.add(key)) continue;
+                String addressStr = address.toBase58();
+                if (!addressStore.contains(addressStr)) {
+                    addressStore.insert(addressStr,new AddressBalance());
+                }
+                added.add(addressStr);
+                addedKeys.add(key);
+            }
+            if (shardRing != null) {
+                subscribeShards(addedKeys);
+                return;
+            }
+            // before the trusted peer is selected the watched addresses are subscribed on connection
+            PivtrumPeer peer = trustedPeer;
+            if (peer == null || added.isEmpty()) return;
+            if (added.size() == 1) {
+                peer.subscribeAddress(added.iterator().next());
+            } else {
+                peer.subscribeAddresses(added);
             }
-            trustedPeer.subscribeAddress(address.toBase58());
         } catch (DbException e) {
             e.printStackTrace();
             throw new IllegalStateException("Db problem",e);
@@ -286,8 +852,123 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
         }
     }
 
+    // -----------------------  Subscription sharding -------------------------------
+
+    /**
+     * Spread the address subscriptions over every connected peer with consistent hashing instead of
+     * subscribing all of them on the trusted peer. The shard of a dropped peer is subscribed on the
+     * remaining ones. Must be set before start.
+     *
+     * @param criticalReplicas -> amount of peers subscribed to every critical address
+     */
+    public void enableSharding(int criticalReplicas) {
+        if (criticalReplicas < 1) throw new IllegalArgumentException("criticalReplicas must be greater than 0");
+        this.criticalReplicas = criticalReplicas;
+        this.shardRing = new ConsistentHashRing<>();
+    }
+
+    public boolean isShardingEnabled() {
+        return shardRing != null;
+    }
+
+    /**
+     * Watch the addresses and, when sharding is enabled, subscribe them on the critical replicas amount of peers.
+     *
+     * @param addresses
+     */
+    public void addCriticalAddresses(Collection<Address> addresses) {
+        List<AddressKey> keys = new ArrayList<>(addresses.size());
+        for (Address address : addresses) {
+            AddressKey key = AddressKey.of(address);
+            criticalAddresses.add(key);
+            keys.add(key);
+        }
+        addWatchedAddresses(addresses);
+        // the already watched ones get their extra replicas
+        if (shardRing != null) subscribeShards(keys);
+    }
+
+    /**
+     * @return amount of addresses subscribed on the peer session, 0 if it doesn't hold a shard.
+     */
+    public int getShardSize(PivtrumPeer pivtrumPeer) {
+        Set<AddressKey> subscribed = shardSubscriptions.get(pivtrumPeer);
+        return subscribed != null ? subscribed.size() : 0;
+    }
+
+    /**
+     * A new session has no subscriptions, the peer takes its part of the ring.
+     * The previous owners keep their subscriptions, the protocol has no unsubscribe.
+     */
+    private void onShardPeerJoined(PivtrumPeer pivtrumPeer) {
+        ConsistentHashRing<PivtrumPeer> ring = shardRing;
+        shardSubscriptions.put(pivtrumPeer, ConcurrentHashMap.<AddressKey>newKeySet());
+        PivtrumPeerData data = pivtrumPeer.getPeerData();
+        ring.add(pivtrumPeer, data.getHost() + ":" + data.getTcpPort());
+        log.info("Shard peer joined, " + data.getHost() + ", ring size: " + ring.size());
+        subscribeShards(watchedAddresses);
+    }
+
+    /**
+     * Re-home the shard of the dropped peer.
+     */
+    private void onShardPeerLeft(PivtrumPeer pivtrumPeer) {
+        shardRing.remove(pivtrumPeer);
+        Set<AddressKey> orphans = shardSubscriptions.remove(pivtrumPeer);
+        if (orphans == null || orphans.isEmpty()) return;
+        log.info("Shard peer left, " + pivtrumPeer.getPeerData().getHost() + ", re-homing: " + orphans.size());
+        subscribeShards(orphans);
+    }
+
+    /**
+     * Subscribe every address on its owners which are not subscribed yet, one batch per peer.
+     */
+    private void subscribeShards(Collection<AddressKey> keys) {
+        ConsistentHashRing<PivtrumPeer> ring = shardRing;
+        Map<PivtrumPeer, Set<String>> byPeer = new HashMap<>();
+        for (AddressKey key : keys) {
+            int replicas = criticalAddresses.contains(key) ? criticalReplicas : 1;
+            for (PivtrumPeer owner : ring.getOwners(key.hashCode(), replicas)) {
+                Set<AddressKey> subscribed = shardSubscriptions.get(owner);
+                if (subscribed == null || !subscribed.add(key)) continue;
+                Set<String> peerAddresses = byPeer.get(owner);
+                if (peerAddresses == null) {
+                    peerAddresses = new HashSet<>();
+                    byPeer.put(owner, peerAddresses);
+                }
+                peerAddresses.add(key.toBase58());
+            }
+        }
+        for (Map.Entry<PivtrumPeer, Set<String>> entry : byPeer.entrySet()) {
+            try {
+                entry.getKey().subscribeAddresses(entry.getValue());
+            } catch (Exception e) {
+                // the disconnection re-homes them
+                log.info("Shard subscription fail, " + entry.getKey().getPeerData().getHost() + ", " + e.getMessage());
+            }
+        }
+    }
+
+    public boolean isWatched(Address address) {
+        return watchedAddresses.contains(AddressKey.of(address));
+    }
+
+    public int getWatchedAddressesCount() {
+        return watchedAddresses.size();
+    }
+
+    private static Set<String> toBase58(Collection<AddressKey> keys) {
+        Set<String> addresses = new HashSet<>(keys.size() * 4 / 3 + 1);
+        for (AddressKey key : keys) {
+            addresses.add(key.toBase58());
+        }
+        return addresses;
+    }
+
     @Override
     public void onBalanceReceive(PivtrumPeer pivtrumPeer, String address, long confirmed, long unconfirmed) {
+        // the quorum verification handles the responses
+        if (isQuorumEnabled()) return;
         try {
             if (pivtrumPeer == trustedPeer) {
                 AddressBalance addressBalance = addressStore.getAddressStatus(address);
@@ -322,15 +1003,262 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
 
     @Override
     public void onGetHistory(PivtrumPeer pivtrumPeer, StatusHistory statusHistory) {
+        // the quorum verification handles the responses
+        if (isQuorumEnabled()) return;
         try {
-            log.info("onGetHistory, address: "+statusHistory.getAddress()+", status: "+statusHistory.getStatus());
+            if (log.isDebugEnabled()) log.debug("onGetHistory, address: "+statusHistory.getAddress()+", status: "+statusHistory.getStatus());
             AddressBalance addressBalance = addressStore.getAddressStatus(statusHistory.getAddress());
             if (addressBalance.getStatus().equals(statusHistory.getStatus())){
                 addressBalance.addStatusConfirmation();
                 if(pivtrumPeer == trustedPeer){
                     addressBalance.addAllTx(statusHistory.getTxHashHeight());
+                    refreshingAddresses.remove(statusHistory.getAddress());
+                }
+                addressStore.insert(statusHistory.getAddress(),addressBalance);
+            }
+        } catch (AddressNotFoundException e) {
+            e.printStackTrace();
+        } catch (CantInsertAddressException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // -----------------------  Peer scoring and read routing -------------------------------
+
+    /**
+     * Set the interval between keepalive pings, must be set before start.
+     */
+    public void setPingIntervalMsec(long pingIntervalMsec) {
+        this.pingIntervalMsec = pingIntervalMsec;
+    }
+
+    /**
+     * Max amount of non trusted peers asked to confirm the balance and history of an address change.
+     */
+    public void setConfirmationPeers(int confirmationPeers) {
+        this.confirmationPeers = confirmationPeers;
+    }
+
+    private void startPings(){
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PivtrumPeergroup-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                pingPeers();
+            }
+        }, pingIntervalMsec, pingIntervalMsec, TimeUnit.MILLISECONDS);
+    }
+
+    private void pingPeers(){
+        for (PivtrumPeer peer : getConnectedPeers()) {
+            try {
+                peer.ping();
+            } catch (Exception e) {
+                log.info("ping failed, "+peer.getPeerData().getHost()+", "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return trusted peer, if it is connected, plus the non trusted connected peers.
+     */
+    public List<PivtrumPeer> getConnectedPeers(){
+        List<PivtrumPeer> connectedPeers = new ArrayList<>(peers.size() + 1);
+        if (trustedPeer != null && trustedPeer.isRunning()) connectedPeers.add(trustedPeer);
+        connectedPeers.addAll(peers);
+        return connectedPeers;
+    }
+
+    /**
+     * Pull snapshot of the wire counters of the trusted peer and the connected non trusted peers.
+     */
+    public PeergroupMetrics getMetrics(){
+        PivtrumPeer trusted = trustedPeer;
+        List<PeerMetrics.Snapshot> snapshots = new ArrayList<>(peers.size());
+        for (PivtrumPeer peer : peers) {
+            snapshots.add(peer.getMetrics());
+        }
+        return new PeergroupMetrics(trusted != null ? trusted.getMetrics() : null, snapshots, reconnects.get());
+    }
+
+    /**
+     * @return connected peer with the best score to route a read-only request.
+     */
+    public PivtrumPeer getBestPeer(){
+        List<PivtrumPeer> best = getBestPeers(getConnectedPeers(), 1);
+        if (best.isEmpty()) throw new IllegalStateException("No peer connected");
+        return best.get(0);
+    }
+
+    /**
+     * @return the amount of peers with the best score, best first.
+     */
+    static List<PivtrumPeer> getBestPeers(List<PivtrumPeer> candidates, int amount){
+        List<PivtrumPeer> sorted = new ArrayList<>(candidates);
+        // scores move while sorting, take a snapshot first
+        final Map<PivtrumPeer,Double> scores = new HashMap<>();
+        for (PivtrumPeer peer : sorted) {
+            scores.put(peer, peer.getScore().getScore());
+        }
+        Collections.sort(sorted, new Comparator<PivtrumPeer>() {
+            @Override
+            public int compare(PivtrumPeer o1, PivtrumPeer o2) {
+                return Double.compare(scores.get(o1), scores.get(o2));
+            }
+        });
+        return sorted.size() > amount ? sorted.subList(0, Math.max(amount, 0)) : sorted;
+    }
+
+    public CompletableFuture<Balance> getBalance(String address){
+        return getBestPeer().getBalance(address);
+    }
+
+    public CompletableFuture<StatusHistory> getHistory(String address){
+        return getBestPeer().getHistory(address);
+    }
+
+    public CompletableFuture<List<Unspent>> listUnspent(String address){
+        return getBestPeer().listUnspent(address);
+    }
+
+    /**
+     * Fetch and decode transactions from the best peer, the same transaction is requested only once
+     * at a time and the last ones are cached.
+     *
+     * @param params
+     * @param maxCachedTxs
+     */
+    public void enableTransactionFetch(NetworkParameters params, int maxCachedTxs) {
+        txFetcher = new TxFetcher(params, this::getBestPeer, maxCachedTxs);
+    }
+
+    /**
+     * @param txHash
+     * @return future completed with the decoded transaction, transaction fetch must be enabled.
+     */
+    public CompletableFuture<Transaction> getTransaction(String txHash){
+        if (txFetcher == null) throw new IllegalStateException("Transaction fetch not enabled");
+        return txFetcher.getTransaction(txHash);
+    }
+
+    public CompletableFuture<Header> getHeader(long height){
+        return getBestPeer().getHeader(height);
+    }
+
+    // -----------------------  Quorum -------------------------------
+
+    private boolean isQuorumEnabled(){
+        QuorumVerifier verifier = quorumVerifier;
+        return verifier != null && getQuorumPeers().size() >= verifier.getQuorum();
+    }
+
+    /**
+     * @return connected peers asked on the quorum verifications, the trusted peer first.
+     */
+    private List<PivtrumPeer> getQuorumPeers(){
+        List<PivtrumPeer> quorumPeers = new ArrayList<>();
+        if (trustedPeer != null && isRunning) quorumPeers.add(trustedPeer);
+        quorumPeers.addAll(getBestPeers(peers, maxQuorumPeers - quorumPeers.size()));
+        return quorumPeers;
+    }
+
+    /**
+     * Request the balance to the quorum peers in parallel
+     *
+     * @param address
+     * @return future completed with the balance agreed by the quorum
+     */
+    public CompletableFuture<QuorumVerifier.Result<Balance>> verifyBalance(String address){
+        return requireQuorumVerifier().verify(
+                address,
+                Method.GET_BALANCE,
+                getQuorumPeers(),
+                peer -> peer.getBalance(address),
+                balance -> Arrays.asList(balance.getConfirmed(), balance.getUnconfirmed())
+        );
+    }
+
+    /**
+     * Request the history to the quorum peers in parallel
+     *
+     * @param address
+     * @return future completed with the history agreed by the quorum
+     */
+    public CompletableFuture<QuorumVerifier.Result<StatusHistory>> verifyHistory(String address){
+        return requireQuorumVerifier().verify(
+                address,
+                Method.GET_ADDRESS_HISTORY,
+                getQuorumPeers(),
+                peer -> peer.getHistory(address),
+                StatusHistory::getStatus
+        );
+    }
+
+    private QuorumVerifier requireQuorumVerifier(){
+        QuorumVerifier verifier = quorumVerifier;
+        if (verifier == null) throw new IllegalStateException("Quorum verification not enabled");
+        return verifier;
+    }
+
+    private void refreshWithQuorum(final String address){
+        verifyBalance(address).whenCompleteAsync((result, throwable) -> {
+            if (throwable != null) {
+                log.info("Balance without quorum, address: "+address+", "+throwable.getMessage());
+            } else {
+                onVerifiedBalance(address, result);
+            }
+        }, listenersExecutor);
+        verifyHistory(address).whenCompleteAsync((result, throwable) -> {
+            if (throwable != null) {
+                log.info("History without quorum, address: "+address+", "+throwable.getMessage());
+            } else {
+                onVerifiedHistory(result);
+            }
+        }, listenersExecutor);
+    }
+
+    private void onVerifiedBalance(String address, QuorumVerifier.Result<Balance> result) {
+        try {
+            Balance balance = result.getValue();
+            AddressBalance addressBalance = addressStore.getAddressStatus(address);
+
+            long prevConfirmedBalance = addressBalance.getConfirmedBalance();
+            long prevUnConfirmedBalance = addressBalance.getUnconfirmedBalance();
+
+            addressBalance.setConfirmedBalance(balance.getConfirmed());
+            addressBalance.setUnconfirmedBalance(balance.getUnconfirmed());
+            for (int i = 0; i < result.getAgreeingPeers().size(); i++) {
+                addressBalance.addBalanceConfirmation();
+            }
+            addressStore.insert(address,addressBalance);
+
+            notifyBalance(address,balance.getConfirmed()-prevConfirmedBalance,balance.getUnconfirmed()-prevUnConfirmedBalance,addressBalance.getAmountOfBalanceConfirmations());
+        } catch (AddressNotFoundException e) {
+            e.printStackTrace();
+        } catch (CantInsertAddressException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onVerifiedHistory(QuorumVerifier.Result<StatusHistory> result) {
+        try {
+            StatusHistory statusHistory = result.getValue();
+            AddressBalance addressBalance = addressStore.getAddressStatus(statusHistory.getAddress());
+            if (statusHistory.getStatus().equals(addressBalance.getStatus())){
+                for (int i = 0; i < result.getAgreeingPeers().size(); i++) {
+                    addressBalance.addStatusConfirmation();
                 }
+                addressBalance.addAllTx(statusHistory.getTxHashHeight());
                 addressStore.insert(statusHistory.getAddress(),addressBalance);
+                refreshingAddresses.remove(statusHistory.getAddress());
             }
         } catch (AddressNotFoundException e) {
             e.printStackTrace();
@@ -347,6 +1275,16 @@ public class PivtrumPeergroup implements PeerListener, PeerDataListener {
 
     public void shutdown() {
         //todo: check if this is fine.. i have to let every single listener know about this action.
+        isActive = false;
+        reconnectAttempts.clear();
         ioManager.shutdown();
+        listenersExecutor.shutdown();
+        if (scheduler != null) scheduler.shutdown();
+        if (peerCache != null) savePeerCache();
+        if (headerSync != null) {
+            headersExecutor.shutdown();
+            merkleExecutor.shutdown();
+            headerSync.getStore().flush();
+        }
     }
 }
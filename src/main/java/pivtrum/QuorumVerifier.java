@@ -0,0 +1,212 @@
+package pivtrum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import pivtrum.exceptions.QuorumNotReachedException;
+import pivtrum.listeners.QuorumListener;
+import pivtrum.messages.Method;
+
+/**
+ * Send the same request to several peers in parallel and complete as soon as a quorum of them agrees on the response.
+ *
+ * Once the quorum is reached the requests still waiting are cancelled. Peers answering something else are
+ * reported to the {@link QuorumListener}s, with or without quorum.
+ */
+
+public class QuorumVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(QuorumVerifier.class);
+
+    /** Amount of peers which must agree */
+    private final int quorum;
+    private final CopyOnWriteArrayList<QuorumListener> quorumListeners = new CopyOnWriteArrayList<>();
+
+    public QuorumVerifier(int quorum) {
+        if (quorum < 1) throw new IllegalArgumentException("quorum must be greater than 0");
+        this.quorum = quorum;
+    }
+
+    public int getQuorum() {
+        return quorum;
+    }
+
+    public void addQuorumListener(QuorumListener quorumListener) {
+        quorumListeners.add(quorumListener);
+    }
+
+    public void removeQuorumListener(QuorumListener quorumListener) {
+        quorumListeners.remove(quorumListener);
+    }
+
+    /**
+     *
+     * @param address -> address verified, used to report disagreements
+     * @param method -> request method, used to report disagreements
+     * @param peers -> peers to ask
+     * @param request -> request sent to every peer
+     * @param agreementKey -> two responses agree if their keys are equal
+     * @return future completed with the agreed response or failed with {@link QuorumNotReachedException}
+     */
+    public <T> CompletableFuture<Result<T>> verify(String address, Method method, List<PivtrumPeer> peers,
+                                                   Function<PivtrumPeer, CompletableFuture<T>> request,
+                                                   Function<T, Object> agreementKey) {
+        if (peers.size() < quorum) {
+            CompletableFuture<Result<T>> future = new CompletableFuture<>();
+            future.completeExceptionally(new QuorumNotReachedException("Not enough peers, " + peers.size() + " of " + quorum));
+            return future;
+        }
+        Round<T> round = new Round<>(address, method, peers.size(), agreementKey);
+        for (PivtrumPeer peer : peers) {
+            CompletableFuture<T> peerFuture;
+            try {
+                peerFuture = request.apply(peer);
+            } catch (Exception e) {
+                round.onFailure(peer, e);
+                continue;
+            }
+            round.pending.add(peerFuture);
+            peerFuture.whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    round.onFailure(peer, throwable);
+                } else {
+                    round.onResponse(peer, response);
+                }
+            });
+        }
+        return round.future;
+    }
+
+    private void notifyDisagreement(String address, Method method, Map<PivtrumPeer, Object> responses, boolean quorumReached) {
+        log.info("Peers disagreement, address: " + address + ", method: " + method + ", quorum reached: " + quorumReached);
+        for (QuorumListener quorumListener : quorumListeners) {
+            quorumListener.onDisagreement(address, method, responses, quorumReached);
+        }
+    }
+
+    /**
+     * Verification of a single request
+     */
+    private class Round<T> {
+
+        private final String address;
+        private final Method method;
+        private final int peersCount;
+        private final Function<T, Object> agreementKey;
+        private final CompletableFuture<Result<T>> future = new CompletableFuture<>();
+        private final List<CompletableFuture<T>> pending = new CopyOnWriteArrayList<>();
+        /** Guarded by this */
+        private final Map<PivtrumPeer, Object> responses = new LinkedHashMap<>();
+        private final Map<Object, List<PivtrumPeer>> peersByKey = new HashMap<>();
+        private int finished;
+
+        Round(String address, Method method, int peersCount, Function<T, Object> agreementKey) {
+            this.address = address;
+            this.method = method;
+            this.peersCount = peersCount;
+            this.agreementKey = agreementKey;
+        }
+
+        void onResponse(PivtrumPeer peer, T response) {
+            Result<T> result = null;
+            Map<PivtrumPeer, Object> disagreement = null;
+            synchronized (this) {
+                if (future.isDone()) return;
+                finished++;
+                responses.put(peer, response);
+                Object key = agreementKey.apply(response);
+                List<PivtrumPeer> agreeing = peersByKey.get(key);
+                if (agreeing == null) {
+                    agreeing = new ArrayList<>();
+                    peersByKey.put(key, agreeing);
+                }
+                agreeing.add(peer);
+                if (agreeing.size() >= quorum) {
+                    result = new Result<>(response, new ArrayList<>(agreeing), responses.size() - agreeing.size());
+                    if (peersByKey.size() > 1) disagreement = new LinkedHashMap<>(responses);
+                }
+            }
+            if (result != null) {
+                if (disagreement != null) notifyDisagreement(address, method, disagreement, true);
+                future.complete(result);
+                cancelStragglers();
+            } else {
+                checkExhausted();
+            }
+        }
+
+        void onFailure(PivtrumPeer peer, Throwable throwable) {
+            synchronized (this) {
+                if (future.isDone()) return;
+                finished++;
+            }
+            log.info("Quorum request failed on peer " + peer.getPeerData().getHost() + ", " + throwable.getMessage());
+            checkExhausted();
+        }
+
+        /**
+         * Fail the round if the peers still waiting can't reach the quorum anymore
+         */
+        private void checkExhausted() {
+            Map<PivtrumPeer, Object> disagreement = null;
+            synchronized (this) {
+                if (future.isDone()) return;
+                int biggestGroup = 0;
+                for (List<PivtrumPeer> agreeing : peersByKey.values()) {
+                    biggestGroup = Math.max(biggestGroup, agreeing.size());
+                }
+                if (biggestGroup + (peersCount - finished) >= quorum) return;
+                if (peersByKey.size() > 1) disagreement = new LinkedHashMap<>(responses);
+            }
+            if (disagreement != null) notifyDisagreement(address, method, disagreement, false);
+            future.completeExceptionally(new QuorumNotReachedException(method + " for " + address + " without quorum of " + quorum));
+            cancelStragglers();
+        }
+
+        /**
+         * The peers release the cancelled requests from their in-flight window.
+         */
+        private void cancelStragglers() {
+            for (CompletableFuture<T> peerFuture : pending) {
+                peerFuture.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Agreed response
+     */
+    public static class Result<T> {
+
+        private final T value;
+        private final List<PivtrumPeer> agreeingPeers;
+        private final int disagreeingPeers;
+
+        Result(T value, List<PivtrumPeer> agreeingPeers, int disagreeingPeers) {
+            this.value = value;
+            this.agreeingPeers = agreeingPeers;
+            this.disagreeingPeers = disagreeingPeers;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public List<PivtrumPeer> getAgreeingPeers() {
+            return agreeingPeers;
+        }
+
+        public int getDisagreeingPeers() {
+            return disagreeingPeers;
+        }
+    }
+}
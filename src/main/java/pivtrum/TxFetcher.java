@@ -0,0 +1,112 @@
+package pivtrum;
+
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Transaction;
+import org.pivxj.core.VerificationException;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Transactions by hash, decoded from the raw hex returned by the peers.
+ *
+ * Concurrent requests of the same transaction share a single network request and the decoded
+ * transactions are kept in a size-bounded LRU.
+ */
+
+public class TxFetcher {
+
+    /** Default max amount of decoded transactions kept */
+    public static final int DEFAULT_MAX_CACHED_TXS = 1000;
+
+    private final NetworkParameters params;
+    private final Supplier<PivtrumPeer> peers;
+    private final Map<String, Transaction> cache;
+    private final ConcurrentHashMap<String, CompletableFuture<Transaction>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param params
+     * @param peers -> peer asked on every request
+     * @param maxCachedTxs
+     */
+    public TxFetcher(NetworkParameters params, Supplier<PivtrumPeer> peers, final int maxCachedTxs) {
+        this.params = params;
+        this.peers = peers;
+        this.cache = new LinkedHashMap<String, Transaction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Transaction> eldest) {
+                return size() > maxCachedTxs;
+            }
+        };
+    }
+
+    /**
+     * @param txHash -> transaction hash in hex, any case
+     * @return future completed with the decoded transaction, cancelling it doesn't affect the other requests of the same transaction.
+     */
+    public CompletableFuture<Transaction> getTransaction(String txHash) {
+        // same key and same form than Transaction#getHashAsString
+        txHash = txHash.toLowerCase(Locale.ROOT);
+        Transaction cached;
+        synchronized (cache) {
+            cached = cache.get(txHash);
+        }
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+        CompletableFuture<Transaction> shared = inFlight.get(txHash);
+        if (shared == null) {
+            CompletableFuture<Transaction> created = new CompletableFuture<>();
+            shared = inFlight.putIfAbsent(txHash, created);
+            if (shared == null) {
+                shared = created;
+                fetch(txHash, created);
+            }
+        }
+        return shared.thenApply(tx -> tx);
+    }
+
+    public int getCachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void fetch(final String txHash, final CompletableFuture<Transaction> future) {
+        CompletableFuture<String> request;
+        try {
+            request = peers.get().getTx(txHash);
+        } catch (Exception e) {
+            inFlight.remove(txHash, future);
+            future.completeExceptionally(e);
+            return;
+        }
+        request.whenComplete((rawTx, throwable) -> {
+            try {
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                    return;
+                }
+                Transaction tx = new Transaction(params, Hex.decode(rawTx));
+                if (!tx.getHashAsString().equals(txHash)) {
+                    throw new VerificationException("Peer returned the transaction " + tx.getHashAsString() + " for " + txHash);
+                }
+                synchronized (cache) {
+                    cache.put(txHash, tx);
+                }
+                future.complete(tx);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                inFlight.remove(txHash, future);
+            }
+        });
+    }
+}
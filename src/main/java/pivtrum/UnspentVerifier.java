@@ -0,0 +1,157 @@
+package pivtrum;
+
+import org.pivxj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import pivtrum.messages.GetMerkleMsg;
+import pivtrum.messages.responses.MerkleProof;
+import pivtrum.messages.responses.Unspent;
+
+/**
+ * SPV check of the unspents: the merkle proofs are requested in batch frames and verified against
+ * the local headers, grouped by height so every header is read once.
+ *
+ * Only the unspents with a valid proof are marked as spendable, the unconfirmed ones and the ones
+ * without a stored header are left unverified.
+ */
+
+public class UnspentVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(UnspentVerifier.class);
+
+    /** Offset of the merkle root in a raw header */
+    private static final int MERKLE_ROOT_OFFSET = 36;
+
+    private final HeaderStore headerStore;
+    /** Proof verification workers */
+    private final Executor workers;
+
+    public UnspentVerifier(HeaderStore headerStore, Executor workers) {
+        this.headerStore = headerStore;
+        this.workers = workers;
+    }
+
+    /**
+     * Request the merkle proof of every confirmed unspent to the peer and verify them.
+     *
+     * @param peer
+     * @param unspents
+     * @return future completed with the verified unspents, already marked as spendable.
+     */
+    public CompletableFuture<List<Unspent>> verify(PivtrumPeer peer, List<Unspent> unspents) {
+        // height -> tx hash -> outputs of the tx, one proof per transaction
+        Map<Long, Map<String, List<Unspent>>> byHeight = new LinkedHashMap<>();
+        List<GetMerkleMsg> msgs = new ArrayList<>();
+        for (Unspent unspent : unspents) {
+            unspent.setSpendable(false);
+            if (unspent.getBlockHeight() <= 0) continue;
+            Map<String, List<Unspent>> txs = byHeight.get(unspent.getBlockHeight());
+            if (txs == null) {
+                txs = new HashMap<>();
+                byHeight.put(unspent.getBlockHeight(), txs);
+            }
+            List<Unspent> outputs = txs.get(unspent.getTxHash());
+            if (outputs == null) {
+                outputs = new ArrayList<>(1);
+                txs.put(unspent.getTxHash(), outputs);
+                msgs.add(new GetMerkleMsg(unspent.getTxHash(), unspent.getBlockHeight()));
+            }
+            outputs.add(unspent);
+        }
+        if (msgs.isEmpty()) return CompletableFuture.completedFuture(new ArrayList<Unspent>());
+
+        List<CompletableFuture<Object>> proofs = peer.sendBatch(msgs);
+        Map<String, CompletableFuture<Object>> proofsByTx = new HashMap<>();
+        for (int i = 0; i < msgs.size(); i++) {
+            proofsByTx.put(msgs.get(i).getTxHash(), proofs.get(i));
+        }
+
+        List<CompletableFuture<List<Unspent>>> heights = new ArrayList<>(byHeight.size());
+        for (Map.Entry<Long, Map<String, List<Unspent>>> entry : byHeight.entrySet()) {
+            final long height = entry.getKey();
+            final Map<String, List<Unspent>> txs = entry.getValue();
+            List<CompletableFuture<Object>> heightProofs = new ArrayList<>(txs.size());
+            for (String txHash : txs.keySet()) {
+                heightProofs.add(proofsByTx.get(txHash));
+            }
+            // a failed proof is just not verified, wait for all of them
+            CompletableFuture<Void> arrived = CompletableFuture.allOf(heightProofs.toArray(new CompletableFuture<?>[0]))
+                    .handle((ignored, throwable) -> null);
+            heights.add(arrived.thenApplyAsync(ignored -> verifyHeight(height, txs, proofsByTx), workers));
+        }
+        return CompletableFuture.allOf(heights.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<Unspent> verified = new ArrayList<>();
+            for (CompletableFuture<List<Unspent>> height : heights) {
+                verified.addAll(height.join());
+            }
+            return verified;
+        });
+    }
+
+    private List<Unspent> verifyHeight(long height, Map<String, List<Unspent>> txs, Map<String, CompletableFuture<Object>> proofs) {
+        List<Unspent> verified = new ArrayList<>();
+        byte[] header;
+        try {
+            header = headerStore.get(height);
+        } catch (IOException e) {
+            log.info("Header read fail, height: " + height, e);
+            return verified;
+        }
+        if (header == null) {
+            log.info("Header not synced, unspents not verified at height: " + height);
+            return verified;
+        }
+        byte[] merkleRoot = Arrays.copyOfRange(header, MERKLE_ROOT_OFFSET, MERKLE_ROOT_OFFSET + 32);
+        for (Map.Entry<String, List<Unspent>> entry : txs.entrySet()) {
+            CompletableFuture<Object> future = proofs.get(entry.getKey());
+            if (future.isCompletedExceptionally()) continue;
+            MerkleProof proof = (MerkleProof) future.join();
+            if (proof.getBlockHeight() == height
+                    && Arrays.equals(merkleRoot, computeMerkleRoot(proof.getTxHash(), proof.getMerkle(), proof.getPos()))) {
+                for (Unspent unspent : entry.getValue()) {
+                    unspent.setSpendable(true);
+                    verified.add(unspent);
+                }
+            } else {
+                log.warn("Invalid merkle proof, tx: " + entry.getKey() + ", height: " + height);
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * @return merkle root, in the header byte order, of the transaction and its branch.
+     */
+    static byte[] computeMerkleRoot(String txHash, List<String> merkle, int pos) {
+        byte[] hash = Sha256Hash.wrap(txHash).getReversedBytes();
+        for (String branchHex : merkle) {
+            byte[] branch = reverse(Hex.decode(branchHex));
+            hash = (pos & 1) == 0
+                    ? Sha256Hash.hashTwice(hash, 0, 32, branch, 0, 32)
+                    : Sha256Hash.hashTwice(branch, 0, 32, hash, 0, 32);
+            pos >>= 1;
+        }
+        return hash;
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        for (int i = 0, j = bytes.length - 1; i < j; i++, j--) {
+            byte tmp = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = tmp;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,12 @@
+package pivtrum.exceptions;
+
+/**
+ * Header download aborted, no peer available or the peers keep sending invalid headers.
+ */
+
+public class HeaderSyncException extends Exception {
+
+    public HeaderSyncException(String s) {
+        super(s);
+    }
+}
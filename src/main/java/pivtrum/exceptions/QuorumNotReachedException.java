@@ -0,0 +1,12 @@
+package pivtrum.exceptions;
+
+/**
+ * Not enough peers agreed on the same response.
+ */
+
+public class QuorumNotReachedException extends Exception {
+
+    public QuorumNotReachedException(String s) {
+        super(s);
+    }
+}
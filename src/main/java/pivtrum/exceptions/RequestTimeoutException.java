@@ -0,0 +1,12 @@
+package pivtrum.exceptions;
+
+/**
+ * Request without a response before his deadline.
+ */
+
+public class RequestTimeoutException extends Exception {
+
+    public RequestTimeoutException(String s) {
+        super(s);
+    }
+}
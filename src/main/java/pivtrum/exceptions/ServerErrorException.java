@@ -0,0 +1,12 @@
+package pivtrum.exceptions;
+
+/**
+ * Error response returned by the server for a request.
+ */
+
+public class ServerErrorException extends Exception {
+
+    public ServerErrorException(String s) {
+        super(s);
+    }
+}
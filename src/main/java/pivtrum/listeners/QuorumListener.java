@@ -0,0 +1,24 @@
+package pivtrum.listeners;
+
+import java.util.Map;
+
+import pivtrum.PivtrumPeer;
+import pivtrum.messages.Method;
+
+/**
+ * Quorum verification events.
+ */
+
+public interface QuorumListener {
+
+    /**
+     * Callback to notify that the peers answered different responses for the same request.
+     *
+     * @param address
+     * @param method -> request verified
+     * @param responses -> response of every peer which answered before the verification finished.
+     * @param quorumReached -> true if the quorum agreed anyway and the verification succeed.
+     */
+    void onDisagreement(String address, Method method, Map<PivtrumPeer,Object> responses, boolean quorumReached);
+
+}
@@ -0,0 +1,20 @@
+package pivtrum.listeners;
+
+import java.util.List;
+
+import pivtrum.messages.responses.Unspent;
+
+/**
+ * Unspents of an address verified with their merkle proofs.
+ */
+
+public interface UnspentListener {
+
+    /**
+     * @param address
+     * @param verified -> unspents with a valid merkle proof, marked as spendable.
+     * @param unverified -> unconfirmed unspents or without a valid proof.
+     */
+    void onUnspentsVerified(String address, List<Unspent> verified, List<Unspent> unverified);
+
+}
@@ -23,6 +23,17 @@ public class BaseMsg<T>{
         return jsonObject;
     }
 
+    /**
+     * Write the message straight into the writer, same content than {@link #toJson()}.
+     */
+    public final void write(JsonByteWriter writer) {
+        writer.beginObject();
+        writer.name("method").value(method);
+        writer.name("id").value(id);
+        writeParams(writer);
+        writer.endObject();
+    }
+
     public final T fromJson(String json) throws JSONException {
         JSONObject jsonObject = new JSONObject(json);
         if (!jsonObject.getString("Method").equals(method)) throw new IllegalArgumentException("json object is not a "+method);
@@ -34,6 +45,12 @@ public class BaseMsg<T>{
      */
     public void toJson(JSONObject jsonObject) throws JSONException{
 
+    }
+    /**
+     * Method to override, write the "params" member.
+     */
+    public void writeParams(JsonByteWriter writer) {
+
     }
     /**
      * Method to override
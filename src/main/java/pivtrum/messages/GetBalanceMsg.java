@@ -10,19 +10,42 @@ import org.json.JSONObject;
 public class GetBalanceMsg extends BaseMsg<GetBalanceMsg> {
 
     String address;
+    private String scripthash;
 
     public GetBalanceMsg(String addressBase58) {
-        super(Method.GET_BALANCE.getMethod());
+        this(addressBase58, null);
+    }
+
+    /**
+     * @param addressBase58
+     * @param scripthash -> script hash of the address, the blockchain.scripthash method is used if it's not null.
+     */
+    public GetBalanceMsg(String addressBase58, String scripthash) {
+        super(scripthash != null ? Method.SCRIPTHASH_GET_BALANCE.getMethod() : Method.GET_BALANCE.getMethod());
         this.address = addressBase58;
+        this.scripthash = scripthash;
     }
 
     @Override
     public void toJson(JSONObject jsonObject) throws JSONException {
         JSONObject addressJson = new JSONObject();
-        addressJson.put("address",address);
+        if (scripthash != null) {
+            addressJson.put("scripthash",scripthash);
+        } else {
+            addressJson.put("address",address);
+        }
         jsonObject.put("params",addressJson);
     }
 
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        if (scripthash != null) {
+            writer.name("params").beginObject().name("scripthash").value(scripthash).endObject();
+        } else {
+            writer.name("params").beginObject().name("address").value(address).endObject();
+        }
+    }
+
     @Override
     public GetBalanceMsg fromJson(JSONObject jsonObject) throws JSONException {
         return super.fromJson(jsonObject);
@@ -31,4 +54,11 @@ public class GetBalanceMsg extends BaseMsg<GetBalanceMsg> {
     public String getAddress() {
         return address;
     }
+
+    /**
+     * @return script hash, null if the message uses the address methods
+     */
+    public String getScripthash() {
+        return scripthash;
+    }
 }
@@ -0,0 +1,34 @@
+package pivtrum.messages;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Request of the raw header of a block, protocol 1.3 and later.
+ */
+
+public class GetBlockHeaderMsg extends BaseMsg<GetBlockHeaderMsg> {
+
+    private long height;
+
+    public GetBlockHeaderMsg(long height) {
+        super(Method.BLOCK_HEADER.getMethod());
+        this.height = height;
+    }
+
+    @Override
+    public void toJson(JSONObject jsonObject) throws JSONException {
+        JSONObject paramsJson = new JSONObject();
+        paramsJson.put("height",height);
+        jsonObject.put("params",paramsJson);
+    }
+
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("height").value(height).endObject();
+    }
+
+    public long getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,41 @@
+package pivtrum.messages;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Request of a range of raw block headers, protocol 1.3 and later.
+ */
+
+public class GetBlockHeadersMsg extends BaseMsg<GetBlockHeadersMsg> {
+
+    private long startHeight;
+    private int count;
+
+    public GetBlockHeadersMsg(long startHeight, int count) {
+        super(Method.BLOCK_HEADERS.getMethod());
+        this.startHeight = startHeight;
+        this.count = count;
+    }
+
+    @Override
+    public void toJson(JSONObject jsonObject) throws JSONException {
+        JSONObject paramsJson = new JSONObject();
+        paramsJson.put("start_height",startHeight);
+        paramsJson.put("count",count);
+        jsonObject.put("params",paramsJson);
+    }
+
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("start_height").value(startHeight).name("count").value(count).endObject();
+    }
+
+    public long getStartHeight() {
+        return startHeight;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,34 @@
+package pivtrum.messages;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Request of a chunk of raw block headers.
+ */
+
+public class GetChunkMsg extends BaseMsg<GetChunkMsg> {
+
+    private long index;
+
+    public GetChunkMsg(long index) {
+        super(Method.GET_CHUNK.getMethod());
+        this.index = index;
+    }
+
+    @Override
+    public void toJson(JSONObject jsonObject) throws JSONException {
+        JSONObject indexJson = new JSONObject();
+        indexJson.put("index",index);
+        jsonObject.put("params",indexJson);
+    }
+
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("index").value(index).endObject();
+    }
+
+    public long getIndex() {
+        return index;
+    }
+}
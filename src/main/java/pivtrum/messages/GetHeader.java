@@ -23,4 +23,9 @@ public class GetHeader extends BaseMsg<GetHeader> {
         jsonObject.put("params",addressJson);
     }
 
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("height").value(height).endObject();
+    }
+
 }
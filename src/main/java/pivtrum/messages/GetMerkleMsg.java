@@ -0,0 +1,41 @@
+package pivtrum.messages;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Request of the merkle branch of a confirmed transaction.
+ */
+
+public class GetMerkleMsg extends BaseMsg<GetMerkleMsg> {
+
+    private String txHash;
+    private long height;
+
+    public GetMerkleMsg(String txHash, long height) {
+        super(Method.GET_MERKLE.getMethod());
+        this.txHash = txHash;
+        this.height = height;
+    }
+
+    @Override
+    public void toJson(JSONObject jsonObject) throws JSONException {
+        JSONObject paramsJson = new JSONObject();
+        paramsJson.put("tx_hash",txHash);
+        paramsJson.put("height",height);
+        jsonObject.put("params",paramsJson);
+    }
+
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("tx_hash").value(txHash).name("height").value(height).endObject();
+    }
+
+    public String getTxHash() {
+        return txHash;
+    }
+
+    public long getHeight() {
+        return height;
+    }
+}
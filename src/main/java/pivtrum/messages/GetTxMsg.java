@@ -23,6 +23,11 @@ public class GetTxMsg extends BaseMsg<GetTxMsg> {
         jsonObject.put("params",addressJson);
     }
 
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginObject().name("tx_hash").value(txHash).endObject();
+    }
+
     @Override
     public GetTxMsg fromJson(JSONObject jsonObject) throws JSONException {
         return super.fromJson(jsonObject);
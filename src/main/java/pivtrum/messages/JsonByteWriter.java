@@ -0,0 +1,182 @@
+package pivtrum.messages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming json writer which encodes straight into a reusable ByteBuffer (UTF-8),
+ * without intermediate JSONObject, String or byte[] allocations.
+ *
+ * The buffer grows when needed and is kept for the next message, it is not thread safe.
+ */
+
+public class JsonByteWriter {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final int MAX_DEPTH = 32;
+
+    private ByteBuffer buffer;
+    /** True while the object or array opened at that depth has no members */
+    private final boolean[] empty = new boolean[MAX_DEPTH];
+    private int depth;
+    /** A member name was written and his value is the next token */
+    private boolean afterName;
+    /** Digits of the long being written */
+    private final byte[] digits = new byte[20];
+
+    public JsonByteWriter(int initialCapacity) {
+        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * Start a new message reusing the buffer
+     */
+    public JsonByteWriter reset() {
+        buffer.clear();
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    /**
+     * @return the buffer with the written bytes, not flipped.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public JsonByteWriter beginObject() {
+        beforeValue();
+        put((byte) '{');
+        push();
+        return this;
+    }
+
+    public JsonByteWriter endObject() {
+        depth--;
+        put((byte) '}');
+        return this;
+    }
+
+    public JsonByteWriter beginArray() {
+        beforeValue();
+        put((byte) '[');
+        push();
+        return this;
+    }
+
+    public JsonByteWriter endArray() {
+        depth--;
+        put((byte) ']');
+        return this;
+    }
+
+    public JsonByteWriter name(String name) {
+        if (depth > 0) {
+            if (!empty[depth]) put((byte) ',');
+            empty[depth] = false;
+        }
+        writeString(name);
+        put((byte) ':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonByteWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            ensure(NULL.length);
+            buffer.put(NULL);
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonByteWriter value(long value) {
+        beforeValue();
+        ensure(digits.length);
+        if (value < 0) {
+            buffer.put((byte) '-');
+        }
+        int pos = digits.length;
+        // work with negative values so Long.MIN_VALUE doesn't overflow
+        long v = value < 0 ? value : -value;
+        do {
+            digits[--pos] = (byte) ('0' - (v % 10));
+            v /= 10;
+        } while (v != 0);
+        buffer.put(digits, pos, digits.length - pos);
+        return this;
+    }
+
+    /**
+     * Write a single raw byte, like the frame delimiter.
+     */
+    public JsonByteWriter raw(byte b) {
+        put(b);
+        return this;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (!empty[depth]) put((byte) ',');
+            empty[depth] = false;
+        }
+    }
+
+    private void push() {
+        if (++depth >= MAX_DEPTH) throw new IllegalStateException("Max json depth reached");
+        empty[depth] = true;
+    }
+
+    private void writeString(String s) {
+        int length = s.length();
+        // worst case: every char escaped as \\uXXXX
+        ensure(length * 6 + 2);
+        buffer.put((byte) '"');
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.put((byte) '\\').put((byte) c);
+            } else if (c < 0x20) {
+                buffer.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0')
+                        .put(HEX[c >> 4]).put(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)))
+                        .put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                        .put((byte) (0x80 | ((codePoint >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)))
+                        .put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.put((byte) '"');
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buffer.put(b);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+}
@@ -10,20 +10,50 @@ import org.json.JSONObject;
 public class ListUnspentMsg extends BaseMsg<ListUnspentMsg> {
 
     private String address;
+    private String scripthash;
 
     public ListUnspentMsg(String address) {
-        super(Method.LIST_UNSPENT.getMethod());
+        this(address, null);
+    }
+
+    /**
+     * @param address
+     * @param scripthash -> script hash of the address, the blockchain.scripthash method is used if it's not null.
+     */
+    public ListUnspentMsg(String address, String scripthash) {
+        super(scripthash != null ? Method.SCRIPTHASH_LIST_UNSPENT.getMethod() : Method.LIST_UNSPENT.getMethod());
         this.address = address;
+        this.scripthash = scripthash;
     }
 
     public String getAddress() {
         return address;
     }
 
+    /**
+     * @return script hash, null if the message uses the address methods
+     */
+    public String getScripthash() {
+        return scripthash;
+    }
+
     @Override
     public void toJson(JSONObject jsonObject) throws JSONException {
         JSONObject addressJson = new JSONObject();
-        addressJson.put("address",address);
+        if (scripthash != null) {
+            addressJson.put("scripthash",scripthash);
+        } else {
+            addressJson.put("address",address);
+        }
         jsonObject.put("params",addressJson);
     }
+
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        if (scripthash != null) {
+            writer.name("params").beginObject().name("scripthash").value(scripthash).endObject();
+        } else {
+            writer.name("params").beginObject().name("address").value(address).endObject();
+        }
+    }
 }
@@ -1,5 +1,8 @@
 package pivtrum.messages;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by furszy on 6/12/17.
  */
@@ -8,6 +11,17 @@ public enum Method {
 
     VERSION("server.version"),
 
+    /**
+     * Ping the server to ensure it is responding, and to keep the session alive.
+     *
+     * server.ping()
+     *
+     * **Response**
+     *
+     * Returns null.
+     */
+    PING("server.ping"),
+
     /**
      * Return a list of peer servers.  Despite the name this is not a
      * subscription and the server must send no notifications.
@@ -123,6 +137,26 @@ public enum Method {
 
     GET_HEADER("blockchain.block.get_header"),
 
+    /**
+     * Return a concatenated chunk of block headers.  A chunk consists of a
+     * fixed number of block headers over at the end of which difficulty is
+     * retargeted.
+     *
+     * blockchain.block.get_chunk(**index**)
+     *
+     * **index**
+     *
+     * The zero-based index of the chunk, an integer.
+     *
+     * **Response**
+     *
+     * The binary block headers as hexadecimal strings, in-order and
+     * concatenated together.  As many as headers as are available at the
+     * implied starting height will be returned; this may range from zero
+     * to the coin-specific chunk size.
+     */
+    GET_CHUNK("blockchain.block.get_chunk"),
+
     /**
      * Subscribe to receive the block height when a new block is found.  This
      * subscription is deprecated in favour of *blockchain.headers.subscribe*
@@ -209,10 +243,134 @@ public enum Method {
      *
      */
 
-    GET_TX("blockchain.transaction.get")
+    GET_TX("blockchain.transaction.get"),
+
+    /**
+     * Return the merkle branch to a confirmed transaction given its hash
+     * and height.
+     *
+     * blockchain.transaction.get_merkle(**tx_hash**, **height**)
+     *
+     * **tx_hash**
+     *
+     * The transaction hash as a hexadecimal string.
+     *
+     * **height**
+     *
+     * The height at which it was confirmed, an integer.
+     *
+     * **Response**
+     *
+     * A dictionary with the following keys:
+     *
+     * * *block_height*: the height of the block the transaction was confirmed in.
+     * * *merkle*: a list of transaction hashes the current hash is paired with,
+     *   recursively, in order to trace up to obtain merkle root of the block,
+     *   deepest pairing first.
+     * * *pos*: the 0-based index of the position of the transaction in the
+     *   ordered list of transactions in the block.
+     */
+    GET_MERKLE("blockchain.transaction.get_merkle"),
+
+    /**
+     * Subscribe to a script hash, protocol 1.1 and later.
+     *
+     * blockchain.scripthash.subscribe(**scripthash**)
+     *
+     * **scripthash**
+     *
+     * The hash of the output script as a hexadecimal string: the sha256 of the
+     * script bytes, byte reversed.
+     *
+     * **Response**
+     *
+     * The *status* of the script hash, same as the address status.
+     *
+     * **Notifications**
+     *
+     * [**scripthash**, **status**]
+     */
+    SCRIPTHASH_SUBSCRIBE("blockchain.scripthash.subscribe"),
+
+    /**
+     * Return the confirmed and unconfirmed history of a script hash, same response
+     * than *blockchain.address.get_history*.
+     *
+     * blockchain.scripthash.get_history(**scripthash**)
+     */
+    SCRIPTHASH_GET_HISTORY("blockchain.scripthash.get_history"),
+
+    /**
+     * Return an ordered list of UTXOs sent to a script hash, same response
+     * than *blockchain.address.listunspent*.
+     *
+     * blockchain.scripthash.listunspent(**scripthash**)
+     */
+    SCRIPTHASH_LIST_UNSPENT("blockchain.scripthash.listunspent"),
+
+    /**
+     * Return the confirmed and unconfirmed balances of a script hash, same response
+     * than *blockchain.address.get_balance*.
+     *
+     * blockchain.scripthash.get_balance(**scripthash**)
+     */
+    SCRIPTHASH_GET_BALANCE("blockchain.scripthash.get_balance"),
+
+    /**
+     * Subscribe to receive the block headers when a new block is found, replaces
+     * *blockchain.numblocks.subscribe* from protocol 1.1.
+     *
+     * blockchain.headers.subscribe()
+     *
+     * **Response**
+     *
+     * The header of the current block: the *deserialized header* with its
+     * *block_height* up to protocol 1.2, a dictionary with the *height* and the
+     * raw *hex* header from 1.3.
+     *
+     * **Notifications**
+     *
+     * [**header**], same format than the response.
+     */
+    HEADERS_SUBSCRIBE("blockchain.headers.subscribe"),
+
+    /**
+     * Return the raw header of the block at the given height, replaces
+     * *blockchain.block.get_header* from protocol 1.3.
+     *
+     * blockchain.block.header(**height**)
+     *
+     * **Response**
+     *
+     * The raw block header as a hexadecimal string.
+     */
+    BLOCK_HEADER("blockchain.block.header"),
+
+    /**
+     * Return a concatenated chunk of raw block headers, replaces
+     * *blockchain.block.get_chunk* from protocol 1.3.
+     *
+     * blockchain.block.headers(**start_height**, **count**)
+     *
+     * **Response**
+     *
+     * A dictionary with the keys *count*, the amount of headers returned,
+     * *hex*, the headers concatenated as a hexadecimal string, and *max*,
+     * the max amount of headers the server returns on a single request.
+     */
+    BLOCK_HEADERS("blockchain.block.headers")
 
     ;
 
+    /** Methods by protocol name */
+    private static final Map<String,Method> methodsByName = new HashMap<>();
+
+    static {
+        for (Method method : Method.values()) {
+            methodsByName.put(method.getMethod(), method);
+        }
+    }
+
     String method;
 
     Method(String method) {
@@ -224,16 +382,21 @@ public enum Method {
     }
 
     /**
-     * Lazy method by name
+     * Method by name
      * @param name
      * @return
      */
     public static Method getMethodByName(String name){
-        for (Method method : Method.values()) {
-            if (method.getMethod().equals(name)){
-                return method;
-            }
-        }
-        throw new IllegalArgumentException("No method for name: "+name);
+        Method method = methodsByName.get(name);
+        if (method == null) throw new IllegalArgumentException("No method for name: "+name);
+        return method;
+    }
+
+    /**
+     * @param name
+     * @return the method or null if it is not known
+     */
+    public static Method findMethodByName(String name){
+        return methodsByName.get(name);
     }
 }
@@ -15,8 +15,8 @@ public class VersionMsg extends BaseMsg<VersionMsg> {
     private String minVersion;
 
     /**
-     * version("2.7.11", "1.0")
-     * @param name
+     * server.version(client_name, [min_version, max_version])
+     * @param name -> client name
      * @param maxVersion
      * @param minVersion
      */
@@ -31,21 +31,43 @@ public class VersionMsg extends BaseMsg<VersionMsg> {
         super(Method.VERSION.getMethod());
     }
 
-
-
     @Override
     public void toJson(JSONObject jsonObject) throws JSONException {
         JSONArray jsonArray = new JSONArray();
-        jsonArray.put(maxVersion);
-        jsonArray.put(minVersion);
+        jsonArray.put(name);
+        jsonArray.put(new JSONArray().put(minVersion).put(maxVersion));
         jsonObject.put("params",jsonArray);
     }
 
+    @Override
+    public void writeParams(JsonByteWriter writer) {
+        writer.name("params").beginArray().value(name).beginArray().value(minVersion).value(maxVersion).endArray().endArray();
+    }
+
     @Override
     public VersionMsg fromJson(JSONObject jsonObject) throws JSONException {
         JSONArray jsonArray = jsonObject.getJSONArray("params");
-        String maxVersion = jsonArray.get(0).toString();
-        String minVersion = jsonArray.get(1).toString();
-        return new VersionMsg(null,maxVersion,minVersion);
+        String name = jsonArray.get(0).toString();
+        JSONArray versions = jsonArray.getJSONArray(1);
+        return new VersionMsg(name,versions.get(1).toString(),versions.get(0).toString());
+    }
+
+    /**
+     * @return a new message with the same content, every request needs its own id.
+     */
+    public VersionMsg copy() {
+        return new VersionMsg(name,maxVersion,minVersion);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMaxVersion() {
+        return maxVersion;
+    }
+
+    public String getMinVersion() {
+        return minVersion;
     }
 }
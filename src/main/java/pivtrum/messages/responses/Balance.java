@@ -0,0 +1,39 @@
+package pivtrum.messages.responses;
+
+/**
+ * Confirmed and unconfirmed balance of an address.
+ */
+
+public class Balance {
+
+    private String address;
+    private long confirmed;
+    private long unconfirmed;
+
+    public Balance(String address, long confirmed, long unconfirmed) {
+        this.address = address;
+        this.confirmed = confirmed;
+        this.unconfirmed = unconfirmed;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getConfirmed() {
+        return confirmed;
+    }
+
+    public long getUnconfirmed() {
+        return unconfirmed;
+    }
+
+    @Override
+    public String toString() {
+        return "Balance{" +
+                "address='" + address + '\'' +
+                ", confirmed=" + confirmed +
+                ", unconfirmed=" + unconfirmed +
+                '}';
+    }
+}
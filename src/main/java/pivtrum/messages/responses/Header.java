@@ -32,6 +32,38 @@ public class Header {
         this.nonce = nonce;
     }
 
+    /**
+     * Parse a raw serialized header, the hashes are returned in the usual reversed hex.
+     *
+     * @param blockHeight
+     * @param raw -> at least the first 80 bytes of the header
+     */
+    public static Header fromRaw(long blockHeight, byte[] raw) {
+        return new Header(
+                blockHeight,
+                readInt32(raw, 0),
+                reversedHex(raw, 4),
+                reversedHex(raw, 36),
+                readInt32(raw, 68),
+                readInt32(raw, 72),
+                readInt32(raw, 76)
+        );
+    }
+
+    private static int readInt32(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static String reversedHex(byte[] bytes, int offset) {
+        char[] hex = new char[64];
+        for (int i = 0; i < 32; i++) {
+            int b = bytes[offset + 31 - i] & 0xFF;
+            hex[i * 2] = Character.forDigit(b >>> 4, 16);
+            hex[i * 2 + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
     public long getBlockHeight() {
         return blockHeight;
     }
@@ -0,0 +1,54 @@
+package pivtrum.messages.responses;
+
+import java.util.List;
+
+/**
+ * Merkle branch of a transaction:
+ *
+ * "block_height": <integer>,
+ * "merkle": [<hexadecimal string>, ...],
+ * "pos": <integer>
+ */
+
+public class MerkleProof {
+
+    private String txHash;
+    private long blockHeight;
+    /** Branch hashes from the transaction level up, in the usual reversed hex */
+    private List<String> merkle;
+    /** Position of the transaction in the block */
+    private int pos;
+
+    public MerkleProof(String txHash, long blockHeight, List<String> merkle, int pos) {
+        this.txHash = txHash;
+        this.blockHeight = blockHeight;
+        this.merkle = merkle;
+        this.pos = pos;
+    }
+
+    public String getTxHash() {
+        return txHash;
+    }
+
+    public long getBlockHeight() {
+        return blockHeight;
+    }
+
+    public List<String> getMerkle() {
+        return merkle;
+    }
+
+    public int getPos() {
+        return pos;
+    }
+
+    @Override
+    public String toString() {
+        return "MerkleProof{" +
+                "txHash='" + txHash + '\'' +
+                ", blockHeight=" + blockHeight +
+                ", merkle=" + merkle +
+                ", pos=" + pos +
+                '}';
+    }
+}
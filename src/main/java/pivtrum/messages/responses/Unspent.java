@@ -10,6 +10,8 @@ public class Unspent {
     private String txHash;
     private long value;
     private long blockHeight;
+    /** Merkle proof verified against the local headers */
+    private volatile boolean spendable;
 
     public Unspent(int txPos, String txHash, long value, long blockHeight) {
         this.txPos = txPos;
@@ -33,4 +35,15 @@ public class Unspent {
     public long getBlockHeight() {
         return blockHeight;
     }
+
+    /**
+     * @return true if the output inclusion was verified with a merkle proof.
+     */
+    public boolean isSpendable() {
+        return spendable;
+    }
+
+    public void setSpendable(boolean spendable) {
+        this.spendable = spendable;
+    }
 }
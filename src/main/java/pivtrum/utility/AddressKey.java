@@ -0,0 +1,72 @@
+package pivtrum.utility;
+
+import org.pivxj.core.Address;
+import org.pivxj.core.AddressFormatException;
+import org.pivxj.core.Base58;
+import org.pivxj.core.Sha256Hash;
+
+import java.util.Arrays;
+
+/**
+ * Compact set key of an address: the 20-byte hash160 plus the version byte, which is needed to rebuild the base58 form.
+ */
+
+public final class AddressKey {
+
+    private static final int HASH160_LENGTH = 20;
+
+    private final byte version;
+    private final byte[] hash160;
+
+    private AddressKey(int version, byte[] hash160) {
+        if (hash160.length != HASH160_LENGTH) throw new IllegalArgumentException("Invalid hash160 length: " + hash160.length);
+        this.version = (byte) version;
+        this.hash160 = hash160;
+    }
+
+    public static AddressKey of(Address address) {
+        return new AddressKey(address.getVersion(), address.getHash160());
+    }
+
+    public static AddressKey fromBase58(String address) throws AddressFormatException {
+        byte[] versionAndHash = Base58.decodeChecked(address);
+        if (versionAndHash.length != HASH160_LENGTH + 1) throw new AddressFormatException("Invalid address length: " + address);
+        return new AddressKey(versionAndHash[0] & 0xFF, Arrays.copyOfRange(versionAndHash, 1, versionAndHash.length));
+    }
+
+    public int getVersion() {
+        return version & 0xFF;
+    }
+
+    public byte[] getHash160() {
+        return hash160.clone();
+    }
+
+    public String toBase58() {
+        byte[] bytes = new byte[HASH160_LENGTH + 1 + 4];
+        bytes[0] = version;
+        System.arraycopy(hash160, 0, bytes, 1, HASH160_LENGTH);
+        byte[] checksum = Sha256Hash.hashTwice(bytes, 0, HASH160_LENGTH + 1);
+        System.arraycopy(checksum, 0, bytes, HASH160_LENGTH + 1, 4);
+        return Base58.encode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AddressKey)) return false;
+        AddressKey other = (AddressKey) o;
+        return version == other.version && Arrays.equals(hash160, other.hash160);
+    }
+
+    @Override
+    public int hashCode() {
+        // the hash160 is already uniformly distributed
+        return (hash160[0] & 0xFF) << 24 | (hash160[1] & 0xFF) << 16 | (hash160[2] & 0xFF) << 8 | (hash160[3] & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return toBase58();
+    }
+}
@@ -0,0 +1,103 @@
+package pivtrum.utility;
+
+import org.pivxj.core.Sha256Hash;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing ring, every node owns the keys between its points and the previous ones.
+ *
+ * Each node is placed on several virtual points so the keys are spread evenly, adding or removing
+ * a node only moves the keys of that node. The owners of a key are the first distinct nodes found
+ * walking the ring from the key hash.
+ */
+
+public class ConsistentHashRing<T> {
+
+    /** Default points of every node on the ring */
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final int virtualNodes;
+    private final TreeMap<Integer, T> ring = new TreeMap<>();
+    private final Map<T, List<Integer>> nodePoints = new HashMap<>();
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) throw new IllegalArgumentException("virtualNodes must be greater than 0");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @param node
+     * @param nodeId -> stable id of the node, the points on the ring are derived from it.
+     * @return false if the node was already on the ring
+     */
+    public synchronized boolean add(T node, String nodeId) {
+        if (nodePoints.containsKey(node)) return false;
+        List<Integer> points = new ArrayList<>(virtualNodes);
+        for (int i = 0; i < virtualNodes; i++) {
+            int point = hash(nodeId + "#" + i);
+            // on a collision the first node keeps the point
+            if (!ring.containsKey(point)) {
+                ring.put(point, node);
+                points.add(point);
+            }
+        }
+        nodePoints.put(node, points);
+        return true;
+    }
+
+    /**
+     * @return false if the node was not on the ring
+     */
+    public synchronized boolean remove(T node) {
+        List<Integer> points = nodePoints.remove(node);
+        if (points == null) return false;
+        for (Integer point : points) {
+            ring.remove(point);
+        }
+        return true;
+    }
+
+    public synchronized boolean contains(T node) {
+        return nodePoints.containsKey(node);
+    }
+
+    public synchronized int size() {
+        return nodePoints.size();
+    }
+
+    /**
+     * @param keyHash -> uniformly distributed hash of the key
+     * @param replicas -> amount of owners
+     * @return the distinct owners of the key, fewer than the replicas if there are not enough nodes.
+     */
+    public synchronized List<T> getOwners(int keyHash, int replicas) {
+        int amount = Math.min(replicas, nodePoints.size());
+        List<T> owners = new ArrayList<>(Math.max(amount, 0));
+        if (amount <= 0) return owners;
+        for (T node : ring.tailMap(keyHash).values()) {
+            if (!owners.contains(node)) owners.add(node);
+            if (owners.size() == amount) return owners;
+        }
+        // wrap around
+        for (T node : ring.headMap(keyHash).values()) {
+            if (!owners.contains(node)) owners.add(node);
+            if (owners.size() == amount) return owners;
+        }
+        return owners;
+    }
+
+    private static int hash(String id) {
+        byte[] hash = Sha256Hash.hash(id.getBytes(StandardCharsets.UTF_8));
+        return (hash[0] & 0xFF) << 24 | (hash[1] & 0xFF) << 16 | (hash[2] & 0xFF) << 8 | (hash[3] & 0xFF);
+    }
+}
@@ -0,0 +1,167 @@
+package pivtrum.utility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Timer optimized for a large amount of short lived deadlines which are usually cancelled before expiring.
+ *
+ * Deadlines are hashed into a wheel of buckets by tick, scheduling and cancelling are O(1) and a single thread
+ * expires them with a precision of one tick.
+ */
+
+public class HashedWheelTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    /** Timeouts scheduled but not yet moved into the wheel, only the worker touches the wheel */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean stopped;
+    private final Thread worker;
+    private long startTime;
+    private long tick;
+
+    /**
+     * @param tickDuration precision of the timer
+     * @param unit
+     * @param ticksPerWheel amount of buckets, rounded up to a power of two
+     * @param threadName
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, String threadName) {
+        if (tickDuration <= 0) throw new IllegalArgumentException("tickDuration must be greater than 0");
+        if (ticksPerWheel <= 0) throw new IllegalArgumentException("ticksPerWheel must be greater than 0");
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (size == 0) size = 1;
+        this.wheel = (List<Timeout>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(new Worker(), threadName);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Schedule the task to run once after the delay, the task runs on the timer thread so it must be fast.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) throw new IllegalStateException("Timer stopped");
+        if (started.compareAndSet(false, true)) {
+            startTime = System.nanoTime();
+            worker.start();
+        }
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the timer, pending timeouts are discarded.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                long deadline = startTime + (tick + 1) * tickNanos;
+                long sleepNanos = deadline - System.nanoTime();
+                if (sleepNanos > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    } catch (InterruptedException e) {
+                        if (stopped) return;
+                    }
+                    continue;
+                }
+                transferNewTimeouts();
+                expire(wheel[(int) (tick & mask)]);
+                tick++;
+            }
+        }
+
+        private void transferNewTimeouts() {
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                if (timeout.isCancelled()) continue;
+                long ticks = (timeout.deadline - startTime) / tickNanos;
+                // already expired deadlines go to the current bucket
+                long expireTick = Math.max(ticks, tick);
+                timeout.remainingRounds = (expireTick - tick) / wheel.length;
+                wheel[(int) (expireTick & mask)].add(timeout);
+            }
+        }
+
+        private void expire(List<Timeout> bucket) {
+            Iterator<Timeout> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Timeout timeout = iterator.next();
+                if (timeout.isCancelled()) {
+                    iterator.remove();
+                } else if (timeout.remainingRounds <= 0) {
+                    iterator.remove();
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds--;
+                }
+            }
+        }
+    }
+
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        /** Wheel rounds left, only accessed by the worker */
+        private long remainingRounds;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the timeout was cancelled before expiring
+         */
+        public boolean cancel() {
+            if (done.compareAndSet(false, true)) {
+                cancelled = true;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            if (!done.compareAndSet(false, true)) return;
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Timeout task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pivtrum.utility;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram in microseconds.
+ *
+ * Every power of two is split in {@link #SUB_BUCKETS} linear buckets, so a percentile is off by at most a
+ * quarter of its value. Samples above {@link #MAX_EXPONENT} are counted on the last bucket.
+ */
+
+public class LatencyHistogram {
+
+    /** Linear buckets per power of two */
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BITS = 2;
+    /** Highest power of two tracked, about 9.5 hours */
+    private static final int MAX_EXPONENT = 35;
+    private static final int BUCKETS = SUB_BUCKETS * (MAX_EXPONENT - 1) + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sumMicros.get(), maxMicros.get());
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS * (exponent - 1) + sub;
+    }
+
+    /**
+     * @return highest value of the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Immutable copy of the histogram.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        private Snapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMsec() {
+            return count == 0 ? 0 : sumMicros / (double) count / 1000;
+        }
+
+        public double getMaxMsec() {
+            return maxMicros / 1000d;
+        }
+
+        /**
+         * @param percentile -> 0 to 100
+         * @return upper bound of the bucket holding the percentile, 0 without samples.
+         */
+        public double getPercentileMsec(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), maxMicros) / 1000d;
+            }
+            return getMaxMsec();
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count +
+                    ", mean=" + String.format("%.2f", getMeanMsec()) +
+                    ", p50=" + getPercentileMsec(50) +
+                    ", p99=" + getPercentileMsec(99) +
+                    ", max=" + getMaxMsec() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package pivtrum.utility;
+
+/**
+ * Electrum protocol versions, dotted numbers like "1.0" or "1.2.1" compared part by part.
+ */
+
+public final class ProtocolVersion {
+
+    /** First version with the blockchain.scripthash.* methods, blockchain.numblocks.subscribe was removed on it */
+    public static final String SCRIPTHASH_VERSION = "1.1";
+    /** First version without the blockchain.address.* methods */
+    public static final String ADDRESS_METHODS_REMOVED_VERSION = "1.2";
+    /** First version with server.ping */
+    public static final String PING_VERSION = "1.2";
+    /** First version with blockchain.block.header(s), blockchain.block.get_header and get_chunk were removed on it */
+    public static final String BLOCK_HEADERS_VERSION = "1.3";
+
+    private ProtocolVersion() {
+    }
+
+    /**
+     * @return negative, zero or positive as the first version is lower, equal or higher than the second one.
+     *         The missing parts are zero, "1.0" equals "1.0.0".
+     */
+    public static int compare(String first, String second) {
+        String[] firstParts = first.trim().split("\\.");
+        String[] secondParts = second.trim().split("\\.");
+        int length = Math.max(firstParts.length, secondParts.length);
+        for (int i = 0; i < length; i++) {
+            int a = i < firstParts.length ? parsePart(firstParts[i], first) : 0;
+            int b = i < secondParts.length ? parsePart(secondParts[i], second) : 0;
+            if (a != b) return a < b ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the version is between the min and the max, both included.
+     */
+    public static boolean isSupported(String version, String min, String max) {
+        return compare(version, min) >= 0 && compare(version, max) <= 0;
+    }
+
+    public static boolean supportsScripthash(String version) {
+        return version != null && compare(version, SCRIPTHASH_VERSION) >= 0;
+    }
+
+    /**
+     * @return true if the server still answers the blockchain.address.* methods.
+     */
+    public static boolean supportsAddressMethods(String version) {
+        return version == null || compare(version, ADDRESS_METHODS_REMOVED_VERSION) < 0;
+    }
+
+    /**
+     * @return true if the height is subscribed with blockchain.headers.subscribe instead of blockchain.numblocks.subscribe.
+     */
+    public static boolean supportsHeadersSubscribe(String version) {
+        return supportsScripthash(version);
+    }
+
+    /**
+     * @return true if the keepalive is server.ping, the older servers get server.version again.
+     */
+    public static boolean supportsPing(String version) {
+        return version != null && compare(version, PING_VERSION) >= 0;
+    }
+
+    /**
+     * @return true if the headers are requested with blockchain.block.header(s) instead of get_header and get_chunk.
+     */
+    public static boolean supportsBlockHeaders(String version) {
+        return version != null && compare(version, BLOCK_HEADERS_VERSION) >= 0;
+    }
+
+    private static int parsePart(String part, String version) {
+        try {
+            return Integer.parseInt(part);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid protocol version: " + version);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pivtrum.utility;
+
+import org.pivxj.core.AddressFormatException;
+import org.pivxj.core.Sha256Hash;
+import org.spongycastle.util.encoders.Hex;
+
+/**
+ * Electrum scripthash of an address: sha256 of the output script, byte reversed and hex encoded.
+ */
+
+public final class ScriptHash {
+
+    /** PIVX script address version bytes, mainnet and testnet/regtest */
+    private static final int MAINNET_P2SH_HEADER = 13;
+    private static final int TESTNET_P2SH_HEADER = 19;
+
+    private static final byte OP_DUP = (byte) 0x76;
+    private static final byte OP_HASH160 = (byte) 0xa9;
+    private static final byte OP_EQUALVERIFY = (byte) 0x88;
+    private static final byte OP_CHECKSIG = (byte) 0xac;
+    private static final byte OP_EQUAL = (byte) 0x87;
+    private static final byte PUSH_20 = 20;
+
+    private ScriptHash() {
+    }
+
+    /**
+     * @param address -> base58 address
+     * @return hex encoded scripthash
+     */
+    public static String of(String address) throws AddressFormatException {
+        return of(AddressKey.fromBase58(address));
+    }
+
+    public static String of(AddressKey key) {
+        return Hex.toHexString(Sha256Hash.wrap(Sha256Hash.hash(outputScript(key))).getReversedBytes());
+    }
+
+    /**
+     * @return pay to script hash script for the script addresses, pay to pubkey hash script for the rest.
+     */
+    static byte[] outputScript(AddressKey key) {
+        byte[] hash160 = key.getHash160();
+        boolean p2sh = key.getVersion() == MAINNET_P2SH_HEADER || key.getVersion() == TESTNET_P2SH_HEADER;
+        byte[] script;
+        if (p2sh) {
+            script = new byte[23];
+            script[0] = OP_HASH160;
+            script[1] = PUSH_20;
+            System.arraycopy(hash160, 0, script, 2, 20);
+            script[22] = OP_EQUAL;
+        } else {
+            script = new byte[25];
+            script[0] = OP_DUP;
+            script[1] = OP_HASH160;
+            script[2] = PUSH_20;
+            System.arraycopy(hash160, 0, script, 3, 20);
+            script[23] = OP_EQUALVERIFY;
+            script[24] = OP_CHECKSIG;
+        }
+        return script;
+    }
+}
@@ -0,0 +1,187 @@
+package pivtrum.utility;
+
+import org.spongycastle.util.encoders.Hex;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Electrum address status: sha256 of the "tx_hash:height:" concatenation of the history, hex encoded.
+ *
+ * The entries are streamed straight into the digest and the digest state after the confirmed prefix
+ * (the leading entries with height > 0) is kept per address, so a new history only hashes the new
+ * confirmed entries and the mempool tail. A cached prefix is reused only if the new history has at
+ * least the same amount of entries and the last prefix entry is unchanged, otherwise it's hashed again.
+ */
+
+public class StatusHasher {
+
+    /** Default max amount of addresses with a cached prefix */
+    public static final int DEFAULT_MAX_CACHED_ADDRESSES = 10000;
+    /** Shorter prefixes are cheap to hash again, not worth the memory */
+    private static final int MIN_CACHED_PREFIX = 16;
+
+    private static class Prefix {
+
+        private final int size;
+        private final String lastTxHash;
+        private final long lastHeight;
+        private final MessageDigest digest;
+
+        Prefix(int size, String lastTxHash, long lastHeight, MessageDigest digest) {
+            this.size = size;
+            this.lastTxHash = lastTxHash;
+            this.lastHeight = lastHeight;
+            this.digest = digest;
+        }
+
+        boolean isPrefixOf(List<TxHashHeightWrapper> history) {
+            if (history.size() < size) return false;
+            TxHashHeightWrapper last = history.get(size - 1);
+            return last.getHeight() == lastHeight && last.getTxHash().equals(lastTxHash);
+        }
+    }
+
+    private final Map<String, Prefix> prefixes;
+    /** "tx_hash:height:" of a single entry */
+    private final ThreadLocal<byte[]> entryBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[128];
+        }
+    };
+
+    public StatusHasher() {
+        this(DEFAULT_MAX_CACHED_ADDRESSES);
+    }
+
+    public StatusHasher(final int maxCachedAddresses) {
+        this.prefixes = new LinkedHashMap<String, Prefix>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Prefix> eldest) {
+                return size() > maxCachedAddresses;
+            }
+        };
+    }
+
+    /**
+     * @param address
+     * @param history -> address history, confirmed entries first as the server sends it.
+     * @return hex encoded status
+     */
+    public String status(String address, List<TxHashHeightWrapper> history) {
+        Prefix prefix;
+        synchronized (prefixes) {
+            prefix = prefixes.get(address);
+        }
+        MessageDigest digest = null;
+        int from = 0;
+        if (prefix != null && prefix.isPrefixOf(history)) {
+            digest = cloneDigest(prefix.digest);
+            if (digest != null) from = prefix.size;
+        }
+        if (digest == null) digest = newDigest();
+
+        int confirmed = from;
+        while (confirmed < history.size() && history.get(confirmed).getHeight() > 0) {
+            update(digest, history.get(confirmed));
+            confirmed++;
+        }
+        if (confirmed > from && confirmed >= MIN_CACHED_PREFIX) {
+            MessageDigest prefixDigest = cloneDigest(digest);
+            if (prefixDigest != null) {
+                TxHashHeightWrapper last = history.get(confirmed - 1);
+                synchronized (prefixes) {
+                    prefixes.put(address, new Prefix(confirmed, last.getTxHash(), last.getHeight(), prefixDigest));
+                }
+            }
+        }
+        for (int i = confirmed; i < history.size(); i++) {
+            update(digest, history.get(i));
+        }
+        return Hex.toHexString(digest.digest());
+    }
+
+    public void forget(String address) {
+        synchronized (prefixes) {
+            prefixes.remove(address);
+        }
+    }
+
+    public int getCachedAddressesCount() {
+        synchronized (prefixes) {
+            return prefixes.size();
+        }
+    }
+
+    private void update(MessageDigest digest, TxHashHeightWrapper entry) {
+        String txHash = entry.getTxHash();
+        byte[] buffer = entryBuffer.get();
+        int needed = txHash.length() + 22;
+        if (buffer.length < needed) {
+            buffer = new byte[needed];
+            entryBuffer.set(buffer);
+        }
+        int pos = 0;
+        for (int i = 0; i < txHash.length(); i++) {
+            char c = txHash.charAt(i);
+            if (c >= 0x80) {
+                // not a hex hash, slow path
+                byte[] bytes = txHash.getBytes(StandardCharsets.UTF_8);
+                digest.update(bytes);
+                pos = 0;
+                break;
+            }
+            buffer[pos++] = (byte) c;
+        }
+        buffer[pos++] = ':';
+        pos = writeDecimal(buffer, pos, entry.getHeight());
+        buffer[pos++] = ':';
+        digest.update(buffer, 0, pos);
+    }
+
+    private static int writeDecimal(byte[] buffer, int pos, long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] bytes = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+            return pos + bytes.length;
+        }
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do {
+            buffer[pos++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were written backwards
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        return pos;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the digest copy, null if the provider doesn't support it */
+    private static MessageDigest cloneDigest(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package pivtrum;
+
+import org.pivxj.core.Address;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.params.MainNetParams;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pivtrum.listeners.AddressListener;
+
+/**
+ * Address churn load generator: a peergroup watching N addresses of a local {@link FakeElectrumServer}
+ * while the server changes their status at a fixed rate, like a payment backend does.
+ *
+ * Reports the latency from the status notification to {@link AddressListener#onBalanceChange}, the requests
+ * per second served, the heap growth and the updates that never got a balance change. Several notifications
+ * of the same address before its balance change are coalesced into a single refresh, they are not dropped.
+ *
+ * Usage: AddressChurnLoad [addresses] [notifications per second] [seconds] [server latency msec] [refresh debounce msec]
+ */
+
+public class AddressChurnLoad {
+
+    /** Time given to the last refreshes after the churn */
+    private static final long DRAIN_MSEC = 10000;
+
+    private final NetworkParameters params;
+    private final int addressesCount;
+    private final int rate;
+    private final int seconds;
+    private final long latencyMsec;
+    private final long debounceMsec;
+
+    /** Address -> notifications still waiting for a balance change */
+    private final ConcurrentHashMap<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+    private final List<Long> latencies = new ArrayList<>();
+    private final AtomicLong notifications = new AtomicLong();
+    private final AtomicLong balanceChanges = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong unmatched = new AtomicLong();
+
+    private static class PendingUpdate {
+
+        private final long firstNanos;
+        private int count;
+
+        PendingUpdate(long firstNanos) {
+            this.firstNanos = firstNanos;
+        }
+    }
+
+    public AddressChurnLoad(NetworkParameters params, int addressesCount, int rate, int seconds, long latencyMsec, long debounceMsec) {
+        this.params = params;
+        this.addressesCount = addressesCount;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.latencyMsec = latencyMsec;
+        this.debounceMsec = debounceMsec;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // the per message logging would be the bottleneck
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        new AddressChurnLoad(
+                MainNetParams.get(),
+                args.length > 0 ? Integer.parseInt(args[0]) : 1000,
+                args.length > 1 ? Integer.parseInt(args[1]) : 200,
+                args.length > 2 ? Integer.parseInt(args[2]) : 30,
+                args.length > 3 ? Long.parseLong(args[3]) : 5,
+                args.length > 4 ? Long.parseLong(args[4]) : PivtrumPeergroup.DEFAULT_REFRESH_DEBOUNCE_MSEC
+        ).run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        try (FakeElectrumServer server = new FakeElectrumServer()) {
+            server.setLatency(latencyMsec, latencyMsec / 2);
+            final List<String> addresses = new ArrayList<>(addressesCount);
+            for (int i = 0; i < addressesCount; i++) {
+                String address = PivtrumPeerServerTest.address(i);
+                addresses.add(address);
+                server.addAddress(address);
+            }
+
+            NetworkConf networkConf = new NetworkConf();
+            networkConf.setTrustedServer(server.getPeerData());
+            FakeElectrumServer.resetIoManagerIds();
+            PivtrumPeergroup peergroup = new PivtrumPeergroup(networkConf);
+            peergroup.setAddressStore(new PivtrumPeergroupServerTest.MemoryAddressStore());
+            peergroup.setRefreshDebounceMsec(debounceMsec);
+            peergroup.addAddressListener(new AddressListener() {
+                @Override
+                public void onBalanceChange(String address, long confirmed, long unconfirmed, int numConfirmations) {
+                    balanceArrived(address);
+                }
+            });
+            peergroup.start();
+
+            long subscribeStart = System.nanoTime();
+            for (String address : addresses) {
+                peergroup.addWatchedAddress(Address.fromBase58(params, address));
+            }
+            while (server.getSubscribedAddresses().size() < addressesCount) {
+                if (System.nanoTime() - subscribeStart > TimeUnit.SECONDS.toNanos(60)) {
+                    throw new IllegalStateException("Subscriptions not completed: " + server.getSubscribedAddresses().size());
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            long subscribeMsec = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - subscribeStart);
+            long heapBefore = usedHeap();
+            long requestsBefore = server.getRequestCount();
+
+            // the notifications are sent in ticks of about 10 milliseconds, the period keeps the exact rate
+            final int perTick = Math.max(1, rate / 100);
+            long tickNanos = TimeUnit.SECONDS.toNanos(1) * perTick / rate;
+            final Random random = new Random(1);
+            final AtomicLong balance = new AtomicLong();
+            ScheduledExecutorService generator = Executors.newSingleThreadScheduledExecutor();
+            long churnStart = System.nanoTime();
+            generator.scheduleAtFixedRate(() -> {
+                for (int i = 0; i < perTick; i++) {
+                    String address = addresses.get(random.nextInt(addresses.size()));
+                    long seq = balance.incrementAndGet();
+                    notified(address);
+                    server.setBalance(address, seq, 0);
+                    server.addHistory(address, txHash(seq), 1000 + seq);
+                }
+            }, 0, tickNanos, TimeUnit.NANOSECONDS);
+            TimeUnit.SECONDS.sleep(seconds);
+            generator.shutdown();
+            generator.awaitTermination(10, TimeUnit.SECONDS);
+            long churnNanos = System.nanoTime() - churnStart;
+
+            long drainStart = System.currentTimeMillis();
+            while (!pending.isEmpty() && System.currentTimeMillis() - drainStart < DRAIN_MSEC) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            long requests = server.getRequestCount() - requestsBefore;
+            long heapAfter = usedHeap();
+            PeergroupMetrics metrics = peergroup.getMetrics();
+            peergroup.shutdown();
+
+            report(subscribeMsec, churnNanos, requests, heapBefore, heapAfter, server.getDroppedCount(), metrics);
+        }
+    }
+
+    private void notified(String address) {
+        notifications.incrementAndGet();
+        pending.compute(address, (key, update) -> {
+            if (update == null) update = new PendingUpdate(System.nanoTime());
+            update.count++;
+            return update;
+        });
+    }
+
+    private void balanceArrived(String address) {
+        long now = System.nanoTime();
+        balanceChanges.incrementAndGet();
+        PendingUpdate update = pending.remove(address);
+        if (update == null) {
+            // a refresh of notifications already matched
+            unmatched.incrementAndGet();
+            return;
+        }
+        coalesced.addAndGet(update.count - 1);
+        synchronized (latencies) {
+            latencies.add(now - update.firstNanos);
+        }
+    }
+
+    private void report(long subscribeMsec, long churnNanos, long requests, long heapBefore, long heapAfter, long serverDropped, PeergroupMetrics metrics) {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+        }
+        Arrays.sort(sorted);
+        long dropped = 0;
+        for (PendingUpdate update : pending.values()) {
+            dropped += update.count;
+        }
+        double churnSeconds = churnNanos / 1e9;
+        System.out.println("Address churn load: " + addressesCount + " addresses, " + rate + " notifications/s, "
+                + seconds + " s, server latency " + latencyMsec + " ms, debounce " + debounceMsec + " ms");
+        System.out.println("  subscribe:        " + subscribeMsec + " ms");
+        System.out.println("  notifications:    " + notifications.get() + " (" + format(notifications.get() / churnSeconds) + "/s)");
+        System.out.println("  balance changes:  " + balanceChanges.get() + ", unmatched: " + unmatched.get());
+        System.out.println("  coalesced:        " + coalesced.get());
+        System.out.println("  dropped updates:  " + dropped + ", server dropped requests: " + serverDropped);
+        System.out.println("  requests:         " + requests + " (" + format(requests / churnSeconds) + "/s)");
+        System.out.println("  latency ms:       p50 " + percentile(sorted, 50) + ", p90 " + percentile(sorted, 90)
+                + ", p99 " + percentile(sorted, 99) + ", max " + percentile(sorted, 100));
+        System.out.println("  wire:             " + metrics.getBytesOut() / 1024 + " KB out, " + metrics.getBytesIn() / 1024
+                + " KB in, " + metrics.getErrors() + " errors, " + metrics.getTimeouts() + " timeouts");
+        System.out.println("  heap growth:      " + (heapAfter - heapBefore) / 1024 + " KB (" + heapBefore / 1024 + " KB -> " + heapAfter / 1024 + " KB)");
+    }
+
+    private static String percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) return "-";
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return format(sorted[Math.max(0, index)] / 1e6);
+    }
+
+    private static String format(double value) {
+        return String.format("%.1f", value);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String txHash(long seq) {
+        String hex = Long.toHexString(seq);
+        StringBuilder hash = new StringBuilder(64);
+        for (int i = hex.length(); i < 64; i++) {
+            hash.append('0');
+        }
+        return hash.append(hex).toString();
+    }
+}
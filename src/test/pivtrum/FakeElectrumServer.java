@@ -0,0 +1,576 @@
+package pivtrum;
+
+import org.furszy.client.IoManager;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pivtrum.messages.Method;
+import pivtrum.messages.responses.Header;
+import pivtrum.utility.ProtocolVersion;
+import pivtrum.utility.ScriptHash;
+
+/**
+ * In-process ElectrumX stand-in: newline delimited JSON-RPC over a local socket, single and batch requests.
+ *
+ * The address data is scripted by the test, the responses are delayed by the latency plus a random jitter and
+ * every request can be dropped with the configured probability. Subscribed connections are notified when the
+ * history of an address changes. The methods removed or not yet added by the negotiated protocol version are answered
+ * as unknown methods, like the real server does. The headers and the merkle proofs are scripted too.
+ */
+
+public class FakeElectrumServer implements Closeable {
+
+    private static final String SOFTWARE = "ElectrumX 1.0.10";
+    /** Max headers of a blockchain.block.headers response */
+    private static final int MAX_HEADERS = 2016;
+
+    private final ServerSocket serverSocket;
+    private final ScheduledExecutorService responder;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final Random random = new Random(42);
+    /** Address -> history entries, "tx_hash" and "height" */
+    private final ConcurrentHashMap<String, List<JSONObject>> histories = new ConcurrentHashMap<>();
+    private final Map<String, long[]> balances = new ConcurrentHashMap<>();
+    private final Map<String, String> rawTxs = new ConcurrentHashMap<>();
+    /** Tx hash -> get_merkle result */
+    private final Map<String, JSONObject> merkleProofs = new ConcurrentHashMap<>();
+    /** Raw headers by height, empty until the test scripts a chain */
+    private volatile List<byte[]> headers = Collections.emptyList();
+    /** Script hash -> address, for the scripthash methods */
+    private final Map<String, String> scripthashes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> requestsByMethod = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile String protocolVersion = "1.4";
+    private volatile long latencyMsec;
+    private volatile long jitterMsec;
+    private volatile double dropRate;
+    private volatile long height = 1000;
+    private volatile boolean closed;
+
+    public FakeElectrumServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        responder = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "FakeElectrumServer-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread acceptor = new Thread(this::accept, "FakeElectrumServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * The client library registers its loopers under global counters but always looks up the first one,
+     * so only the first IoManager of the JVM works. Reset them before creating a manager or a peergroup.
+     */
+    public static void resetIoManagerIds() {
+        IoManager.connectorsId.set(0);
+        IoManager.processorsId.set(0);
+    }
+
+    public static IoManager newIoManager() throws IOException {
+        resetIoManagerIds();
+        return new IoManager(1, 1);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public PivtrumPeerData getPeerData() {
+        return new PivtrumPeerData(serverSocket.getInetAddress().getHostAddress(), getPort(), 0);
+    }
+
+    /**
+     * Negotiated protocol, "1.0" answers the version with the software string only like the old servers.
+     */
+    public void setProtocolVersion(String protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public void setLatency(long latencyMsec, long jitterMsec) {
+        this.latencyMsec = latencyMsec;
+        this.jitterMsec = jitterMsec;
+    }
+
+    /**
+     * @param dropRate -> probability of a request without response, 0 to 1
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * Notify the new height, with blockchain.headers.subscribe from protocol 1.1.
+     */
+    public void setHeight(long height) {
+        this.height = height;
+        if (ProtocolVersion.supportsHeadersSubscribe(protocolVersion)) {
+            broadcast(Method.HEADERS_SUBSCRIBE.getMethod(), new JSONArray().put(tip()));
+        } else {
+            broadcast(Method.HEIGHT_SUBSCRIBE.getMethod(), new JSONArray().put(height));
+        }
+    }
+
+    /**
+     * Chain answered by the header methods, the height moves to its last header.
+     *
+     * @param headers -> raw 80 bytes headers from height 0
+     */
+    public void setHeaders(List<byte[]> headers) {
+        this.headers = new ArrayList<>(headers);
+        setHeight(headers.size() - 1);
+    }
+
+    public void setBalance(String address, long confirmed, long unconfirmed) {
+        balances.put(address, new long[]{confirmed, unconfirmed});
+        registerScripthash(address);
+    }
+
+    public void putTransaction(String txHash, String rawTx) {
+        rawTxs.put(txHash, rawTx);
+    }
+
+    public void putMerkleProof(String txHash, long height, List<String> merkle, int pos) {
+        merkleProofs.put(txHash, new JSONObject().put("block_height", height).put("merkle", new JSONArray(merkle)).put("pos", pos));
+    }
+
+    /**
+     * Append a transaction to the address history and notify the subscribed connections.
+     */
+    public void addHistory(String address, String txHash, long height) {
+        registerScripthash(address);
+        List<JSONObject> history = histories.get(address);
+        if (history == null) {
+            history = new CopyOnWriteArrayList<>();
+            List<JSONObject> previous = histories.putIfAbsent(address, history);
+            if (previous != null) history = previous;
+        }
+        history.add(new JSONObject().put("tx_hash", txHash).put("height", height));
+        notifyAddress(address);
+    }
+
+    /**
+     * Send the current status of the address to the connections subscribed to it.
+     */
+    public void notifyAddress(String address) {
+        String status = status(address);
+        for (Connection connection : connections) {
+            if (connection.subscribed.contains(address)) {
+                boolean scripthash = connection.scripthashSubscriptions.contains(address);
+                String key = scripthash ? ScriptHash.of(address) : address;
+                String method = scripthash ? Method.SCRIPTHASH_SUBSCRIBE.getMethod() : Method.ADDRESS_SUBSCRIBE.getMethod();
+                connection.send(new JSONObject().put("jsonrpc", "2.0").put("method", method)
+                        .put("params", new JSONArray().put(key).put(status != null ? status : JSONObject.NULL)).toString());
+            }
+        }
+    }
+
+    /**
+     * @return electrum status of the address, null without history
+     */
+    public String status(String address) {
+        List<JSONObject> history = histories.get(address);
+        if (history == null || history.isEmpty()) return null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (JSONObject entry : history) {
+                digest.update((entry.getString("tx_hash") + ":" + entry.getLong("height") + ":").getBytes(StandardCharsets.UTF_8));
+            }
+            return Hex.toHexString(digest.digest());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public long getRequestCount(Method method) {
+        AtomicLong count = requestsByMethod.get(method.getMethod());
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @return requests of every method, the dropped ones included
+     */
+    public long getRequestCount() {
+        long count = 0;
+        for (AtomicLong methodCount : requestsByMethod.values()) {
+            count += methodCount.get();
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return subscriptions of every open connection, an address subscribed on two connections counts twice.
+     */
+    public List<String> getSubscribedAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (Connection connection : connections) {
+            addresses.addAll(connection.subscribed);
+        }
+        return addresses;
+    }
+
+    public int getConnectionsCount() {
+        return connections.size();
+    }
+
+    /**
+     * Drop every open connection, the server keeps accepting new ones.
+     */
+    public void closeConnections() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing
+        }
+        closeConnections();
+        responder.shutdownNow();
+    }
+
+    /**
+     * Known address without history, the scripthash requests only resolve the known addresses.
+     */
+    public void addAddress(String address) {
+        registerScripthash(address);
+    }
+
+    private void registerScripthash(String address) {
+        try {
+            scripthashes.put(ScriptHash.of(address), address);
+        } catch (Exception e) {
+            // not a base58 address, only reachable by the address methods
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(connection::read, "FakeElectrumServer-connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * @return false if the negotiated protocol version removed the method or didn't add it yet
+     */
+    private boolean isAvailable(Method method) {
+        String version = protocolVersion;
+        switch (method) {
+            case HEIGHT_SUBSCRIBE:
+                return !ProtocolVersion.supportsHeadersSubscribe(version);
+            case HEADERS_SUBSCRIBE:
+                return ProtocolVersion.supportsHeadersSubscribe(version);
+            case ADDRESS_SUBSCRIBE:
+            case GET_BALANCE:
+            case GET_ADDRESS_HISTORY:
+            case LIST_UNSPENT:
+                return ProtocolVersion.supportsAddressMethods(version);
+            case SCRIPTHASH_SUBSCRIBE:
+            case SCRIPTHASH_GET_BALANCE:
+            case SCRIPTHASH_GET_HISTORY:
+            case SCRIPTHASH_LIST_UNSPENT:
+                return ProtocolVersion.supportsScripthash(version);
+            case GET_HEADER:
+            case GET_CHUNK:
+                return !ProtocolVersion.supportsBlockHeaders(version);
+            case BLOCK_HEADER:
+            case BLOCK_HEADERS:
+                return ProtocolVersion.supportsBlockHeaders(version);
+            case PING:
+                return ProtocolVersion.supportsPing(version);
+            default:
+                return true;
+        }
+    }
+
+    private byte[] header(long height) {
+        List<byte[]> chain = headers;
+        if (height < 0 || height >= chain.size()) throw new UnsupportedOperationException("unknown height " + height);
+        return chain.get((int) height);
+    }
+
+    /**
+     * @return raw headers from the start height, cut at the chain tip
+     */
+    private String headersHex(long startHeight, long count) {
+        List<byte[]> chain = headers;
+        if (startHeight < 0 || startHeight >= chain.size()) throw new UnsupportedOperationException("unknown height " + startHeight);
+        StringBuilder hex = new StringBuilder();
+        for (long i = startHeight; i < Math.min(chain.size(), startHeight + count); i++) {
+            hex.append(Hex.toHexString(chain.get((int) i)));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return deserialized header, the get_header result and the headers.subscribe one up to protocol 1.2
+     */
+    private JSONObject headerJson(long height, byte[] raw) {
+        Header header = Header.fromRaw(height, raw);
+        return new JSONObject()
+                .put("block_height", height)
+                .put("version", header.getVersion())
+                .put("prev_block_hash", header.getPrevBlockHash())
+                .put("merkle_root", header.getMerkleRoot())
+                .put("timestamp", header.getTimestamp() & 0xFFFFFFFFL)
+                .put("bits", header.getBits() & 0xFFFFFFFFL)
+                .put("nonce", header.getNonce() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return headers.subscribe result, the raw header from protocol 1.3. Above the scripted chain the tip is an empty header.
+     */
+    private JSONObject tip() {
+        long tipHeight = height;
+        byte[] raw = tipHeight < headers.size() ? header(tipHeight) : new byte[HeaderStore.HEADER_SIZE];
+        if (ProtocolVersion.supportsBlockHeaders(protocolVersion)) {
+            return new JSONObject().put("height", tipHeight).put("hex", Hex.toHexString(raw));
+        }
+        return headerJson(tipHeight, raw);
+    }
+
+    private void broadcast(String method, JSONArray params) {
+        String notification = new JSONObject().put("jsonrpc", "2.0").put("method", method).put("params", params).toString();
+        for (Connection connection : connections) {
+            connection.send(notification);
+        }
+    }
+
+    private long delay() {
+        long jitter = jitterMsec;
+        synchronized (random) {
+            return latencyMsec + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        }
+    }
+
+    private boolean drop() {
+        if (dropRate <= 0) return false;
+        synchronized (random) {
+            return random.nextDouble() < dropRate;
+        }
+    }
+
+    private class Connection {
+
+        private final Socket socket;
+        private final OutputStream out;
+        private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+        private final Set<String> scripthashSubscriptions = ConcurrentHashMap.newKeySet();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+        }
+
+        void read() {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    if (line.startsWith("[")) {
+                        JSONArray batch = new JSONArray(line);
+                        JSONArray responses = new JSONArray();
+                        for (int i = 0; i < batch.length(); i++) {
+                            JSONObject response = handle(batch.getJSONObject(i));
+                            if (response != null) responses.put(response);
+                        }
+                        if (responses.length() > 0) sendDelayed(responses.toString());
+                    } else {
+                        JSONObject response = handle(new JSONObject(line));
+                        if (response != null) sendDelayed(response.toString());
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * @return the response, null if it's dropped
+         */
+        JSONObject handle(JSONObject request) {
+            String method = request.getString("method");
+            AtomicLong count = requestsByMethod.get(method);
+            if (count == null) {
+                count = new AtomicLong();
+                AtomicLong previous = requestsByMethod.putIfAbsent(method, count);
+                if (previous != null) count = previous;
+            }
+            count.incrementAndGet();
+            if (drop()) {
+                dropped.incrementAndGet();
+                return null;
+            }
+            JSONObject response = new JSONObject().put("jsonrpc", "2.0").put("id", request.get("id"));
+            try {
+                response.put("result", result(method, request.opt("params")));
+            } catch (UnsupportedOperationException e) {
+                response.put("error", new JSONObject().put("code", -32601).put("message", "unknown method " + method));
+            }
+            if (!response.has("result") && !response.has("error")) response.put("result", JSONObject.NULL);
+            return response;
+        }
+
+        Object result(String method, Object params) {
+            Method known = Method.findMethodByName(method);
+            if (known == null || !isAvailable(known)) throw new UnsupportedOperationException(method);
+            boolean legacy = "1.0".equals(protocolVersion);
+            switch (known) {
+                case VERSION:
+                    return legacy ? SOFTWARE : new JSONArray().put(SOFTWARE).put(protocolVersion);
+                case PING:
+                    return JSONObject.NULL;
+                case GET_PEERS:
+                    return new JSONArray();
+                case HEIGHT_SUBSCRIBE:
+                    return height;
+                case HEADERS_SUBSCRIBE:
+                    return tip();
+                case GET_HEADER: {
+                    long headerHeight = ((JSONObject) params).getLong("height");
+                    return headerJson(headerHeight, header(headerHeight));
+                }
+                case GET_CHUNK:
+                    return headersHex(((JSONObject) params).getLong("index") * HeaderSync.CHUNK_SIZE, HeaderSync.CHUNK_SIZE);
+                case BLOCK_HEADER:
+                    return Hex.toHexString(header(((JSONObject) params).getLong("height")));
+                case BLOCK_HEADERS: {
+                    JSONObject json = (JSONObject) params;
+                    String hex = headersHex(json.getLong("start_height"), Math.min(json.getLong("count"), MAX_HEADERS));
+                    return new JSONObject().put("hex", hex).put("count", hex.length() / (HeaderStore.HEADER_SIZE * 2)).put("max", MAX_HEADERS);
+                }
+                case ADDRESS_SUBSCRIBE:
+                case SCRIPTHASH_SUBSCRIBE: {
+                    String address = address(known, params);
+                    subscribed.add(address);
+                    if (known == Method.SCRIPTHASH_SUBSCRIBE) scripthashSubscriptions.add(address);
+                    String status = status(address);
+                    return status != null ? status : JSONObject.NULL;
+                }
+                case GET_BALANCE:
+                case SCRIPTHASH_GET_BALANCE: {
+                    long[] balance = balances.get(address(known, params));
+                    return new JSONObject().put("confirmed", balance != null ? balance[0] : 0).put("unconfirmed", balance != null ? balance[1] : 0);
+                }
+                case GET_ADDRESS_HISTORY:
+                case SCRIPTHASH_GET_HISTORY: {
+                    List<JSONObject> history = histories.get(address(known, params));
+                    return new JSONArray(history != null ? history : Collections.<JSONObject>emptyList());
+                }
+                case LIST_UNSPENT:
+                case SCRIPTHASH_LIST_UNSPENT:
+                    address(known, params);
+                    return new JSONArray();
+                case GET_TX: {
+                    String rawTx = rawTxs.get(((JSONObject) params).getString("tx_hash"));
+                    if (rawTx == null) throw new UnsupportedOperationException(method);
+                    return rawTx;
+                }
+                case GET_MERKLE: {
+                    JSONObject proof = merkleProofs.get(((JSONObject) params).getString("tx_hash"));
+                    if (proof == null) throw new UnsupportedOperationException(method);
+                    return proof;
+                }
+                default:
+                    throw new UnsupportedOperationException(method);
+            }
+        }
+
+        /**
+         * @return the address of the request, the address methods are unknown from protocol 1.2
+         */
+        String address(Method method, Object params) {
+            JSONObject json = (JSONObject) params;
+            if (method.getMethod().startsWith("blockchain.scripthash")) {
+                String address = scripthashes.get(json.getString("scripthash"));
+                if (address == null) throw new UnsupportedOperationException("unknown scripthash");
+                return address;
+            }
+            return json.getString("address");
+        }
+
+        void sendDelayed(final String frame) {
+            long delay = delay();
+            if (delay <= 0) {
+                send(frame);
+                return;
+            }
+            try {
+                responder.schedule(() -> send(frame), delay, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                // server closed
+            }
+        }
+
+        void send(String frame) {
+            byte[] bytes = (frame + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                try {
+                    out.write(bytes);
+                    out.flush();
+                } catch (SocketException e) {
+                    close();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing
+            }
+        }
+    }
+}
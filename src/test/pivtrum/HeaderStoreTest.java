@@ -0,0 +1,72 @@
+package pivtrum;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pivtrum.messages.responses.Header;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HeaderStoreTest {
+
+    @Test
+    public void storeHeadersByHeightAcrossReopen() throws Exception {
+        File file = File.createTempFile("headers", ".dat");
+        file.delete();
+        try {
+            List<byte[]> headers = new ArrayList<>();
+            headers.add(header(1, 80));
+            headers.add(header(4, 112));
+            headers.add(header(3, 80));
+            HeaderStore store = new HeaderStore(file);
+            assertEquals(-1, store.getTipHeight());
+            store.append(0, headers);
+            store.flush();
+            store.close();
+
+            store = new HeaderStore(file);
+            assertEquals(2, store.getTipHeight());
+            for (int i = 0; i < headers.size(); i++) {
+                assertArrayEquals(headers.get(i), store.get(i));
+            }
+            assertNull(store.get(3));
+            Header header = store.getHeader(1);
+            assertEquals(4, header.getVersion());
+            assertEquals(1, header.getBlockHeight());
+            assertEquals(0x47464544, header.getTimestamp());
+
+            store.truncate(0);
+            assertNull(store.get(1));
+            store.append(1, Arrays.asList(headers.get(2)));
+            assertArrayEquals(headers.get(2), store.get(1));
+            store.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void splitChunkByHeaderVersion() {
+        StringBuilder hex = new StringBuilder();
+        for (byte[] header : Arrays.asList(header(1, 80), header(4, 112), header(2, 80))) {
+            for (byte b : header) hex.append(String.format("%02x", b & 0xFF));
+        }
+        List<byte[]> headers = HeaderSync.parseChunk(hex.toString());
+        assertEquals(3, headers.size());
+        assertEquals(112, headers.get(1).length);
+        assertEquals(80, headers.get(2).length);
+    }
+
+    private static byte[] header(int version, int size) {
+        byte[] header = new byte[size];
+        for (int i = 4; i < size; i++) header[i] = (byte) i;
+        header[0] = (byte) version;
+        return header;
+    }
+}
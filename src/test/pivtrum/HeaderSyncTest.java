@@ -0,0 +1,210 @@
+package pivtrum;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pivxj.core.Block;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Sha256Hash;
+import org.pivxj.core.Utils;
+import org.pivxj.params.MainNetParams;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pivtrum.exceptions.HeaderSyncException;
+import pivtrum.messages.VersionMsg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Header download against scripted peers: chunk retries, linkage failures and reorgs.
+ * The heights start after a stored base header, the synthetic chains are not checked against the genesis block.
+ */
+
+public class HeaderSyncTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    private File file;
+    private HeaderStore store;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("headers", ".dat");
+        file.delete();
+        store = new HeaderStore(file);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void chunkRetriedOnTheNextPeer() throws Exception {
+        List<byte[]> chain = chain(null, 100, 0);
+        store.append(0, chain.subList(0, 1));
+        StubPeer closed = new StubPeer(index -> {
+            throw new IllegalStateException("Not connected peer");
+        });
+        StubPeer truncated = new StubPeer(index -> CompletableFuture.completedFuture(hex(chain).substring(10)));
+        StubPeer good = new StubPeer(index -> CompletableFuture.completedFuture(hex(chain)));
+
+        long tip = sync(99, closed, truncated, good).get(10, TimeUnit.SECONDS);
+        assertEquals(99, tip);
+        assertArrayEquals(chain.get(99), store.get(99));
+        assertEquals(1, closed.requests.get());
+        assertEquals(1, truncated.requests.get());
+        assertEquals(1, good.requests.get());
+    }
+
+    @Test
+    public void failsWhenEveryAttemptFails() throws Exception {
+        store.append(0, chain(null, 1, 0));
+        StubPeer closed = new StubPeer(index -> {
+            throw new IllegalStateException("Not connected peer");
+        });
+        try {
+            sync(99, closed).get(10, TimeUnit.SECONDS);
+            fail("sync completed without chunks");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HeaderSyncException);
+        }
+        assertEquals(0, store.getTipHeight());
+    }
+
+    @Test
+    public void reorgTruncatesTheStoredTip() throws Exception {
+        int depth = HeaderSync.MAX_REORG_DEPTH;
+        List<byte[]> local = chain(null, depth + 50, 0);
+        // the peers chain forks 20 headers below the stored tip
+        List<byte[]> remote = new ArrayList<>(local.subList(0, depth + 30));
+        remote.addAll(chain(remote.get(remote.size() - 1), 70, 1));
+        store.append(0, local);
+
+        StubPeer peer = new StubPeer(index -> CompletableFuture.completedFuture(hex(remote)));
+        long tip = sync(remote.size() - 1, peer).get(10, TimeUnit.SECONDS);
+        assertEquals(remote.size() - 1, tip);
+        assertArrayEquals(remote.get(depth + 40), store.get(depth + 40));
+        assertArrayEquals(remote.get(remote.size() - 1), store.get(tip));
+    }
+
+    @Test
+    public void unlinkedChainFails() throws Exception {
+        int depth = HeaderSync.MAX_REORG_DEPTH;
+        store.append(0, chain(null, depth + 50, 0));
+        // not even linked below the max reorg depth
+        List<byte[]> remote = chain(null, depth + 100, 1);
+        StubPeer peer = new StubPeer(index -> CompletableFuture.completedFuture(hex(remote)));
+        try {
+            sync(remote.size() - 1, peer).get(10, TimeUnit.SECONDS);
+            fail("unlinked chain stored");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HeaderSyncException);
+        }
+        // the reorg dropped the headers above the max depth once
+        assertEquals(49, store.getTipHeight());
+        assertEquals(4, peer.requests.get());
+    }
+
+    @Test
+    public void chunksPastAnUnknownEndDropped() throws Exception {
+        List<byte[]> chain = chain(null, 2 * HeaderSync.CHUNK_SIZE + 100, 0);
+        store.append(0, chain.subList(0, 1));
+        // the chunk after the end is answered once the short one is stored
+        CompletableFuture<String> pastEnd = new CompletableFuture<>();
+        StubPeer peer = new StubPeer(index -> {
+            int from = (int) index * HeaderSync.CHUNK_SIZE;
+            if (from >= chain.size()) return pastEnd;
+            int to = Math.min(chain.size(), from + HeaderSync.CHUNK_SIZE);
+            return CompletableFuture.completedFuture(hex(chain.subList(from, to)));
+        });
+
+        CompletableFuture<Long> sync = sync(Long.MAX_VALUE, peer);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (store.getTipHeight() < chain.size() - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // chunks after the end were in flight
+        assertTrue(peer.requests.get() > 3);
+        pastEnd.complete("");
+        assertEquals(chain.size() - 1, (long) sync.get(10, TimeUnit.SECONDS));
+    }
+
+    private CompletableFuture<Long> sync(long target, PivtrumPeer... peers) {
+        final List<PivtrumPeer> connected = Arrays.asList(peers);
+        HeaderSync headerSync = new HeaderSync(PARAMS, store, () -> connected, executor);
+        headerSync.setLastPowHeight(0);
+        return headerSync.sync(target);
+    }
+
+    /**
+     * @param parent -> header linked by the first one, null for a base without parent
+     * @param seed -> changes the hashes, two seeds are two forks
+     */
+    private static List<byte[]> chain(byte[] parent, int count, int seed) {
+        List<byte[]> headers = new ArrayList<>(count);
+        Sha256Hash prevHash = parent != null ? PARAMS.getDefaultSerializer().makeBlock(parent).getHash() : Sha256Hash.ZERO_HASH;
+        long bits = Utils.encodeCompactBits(PARAMS.getMaxTarget());
+        for (int i = 0; i < count; i++) {
+            byte[] header = new byte[HeaderStore.HEADER_SIZE];
+            Utils.uint32ToByteArrayLE(1, header, 0);
+            System.arraycopy(prevHash.getReversedBytes(), 0, header, 4, 32);
+            Utils.uint32ToByteArrayLE(1500000000L + i, header, 68);
+            Utils.uint32ToByteArrayLE(bits, header, 72);
+            Utils.uint32ToByteArrayLE(seed, header, 76);
+            headers.add(header);
+            prevHash = PARAMS.getDefaultSerializer().makeBlock(header).getHash();
+        }
+        return headers;
+    }
+
+    private static String hex(List<byte[]> headers) {
+        StringBuilder hex = new StringBuilder();
+        for (byte[] header : headers) {
+            hex.append(Utils.HEX.encode(header));
+        }
+        return hex.toString();
+    }
+
+    private interface ChunkSource {
+
+        CompletableFuture<String> chunk(long index);
+    }
+
+    /**
+     * Peer without connection answering the chunks from the source.
+     */
+    private static class StubPeer extends PivtrumPeer {
+
+        private final ChunkSource source;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        StubPeer(ChunkSource source) {
+            super(new PivtrumPeerData("localhost", 0, 0), null, new VersionMsg("test", "1.4", "1.0"));
+            this.source = source;
+        }
+
+        @Override
+        public CompletableFuture<String> getChunk(long index) {
+            requests.incrementAndGet();
+            return source.chunk(index);
+        }
+    }
+}
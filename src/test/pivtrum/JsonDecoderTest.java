@@ -0,0 +1,141 @@
+package pivtrum;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame decoding of the newline-delimited json stream.
+ */
+
+public class JsonDecoderTest {
+
+    @Test
+    public void decodeSeveralFramesOnASingleRead() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        List<Object> frames = decoder.decode(read("{\"id\":1,\"result\":\"a\"}\n{\"id\":2,\"result\":\"b\"}\n"));
+        assertEquals(2, frames.size());
+        assertEquals(1, ((JSONObject) frames.get(0)).getLong("id"));
+        assertEquals(2, ((JSONObject) frames.get(1)).getLong("id"));
+        assertEquals(0, decoder.getPendingSize());
+    }
+
+    @Test
+    public void decodeFrameSplitAcrossReads() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        assertTrue(decoder.decode(read("{\"id\":1,\"res")).isEmpty());
+        assertTrue(decoder.decode(read("ult\":[1,2,")).isEmpty());
+        List<Object> frames = decoder.decode(read("3]}\n{\"id\":2"));
+        assertEquals(1, frames.size());
+        assertEquals(3, ((JSONObject) frames.get(0)).getJSONArray("result").length());
+        frames = decoder.decode(read("}\n"));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+    }
+
+    @Test
+    public void decodeBatchResponse() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        List<Object> frames = decoder.decode(read("[{\"id\":1,\"result\":1},{\"id\":2,\"result\":2}]\r\n"));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONArray) frames.get(0)).length());
+    }
+
+    @Test
+    public void malformedFrameSkipped() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        List<Object> frames = decoder.decode(read("{\"id\":1,\"result\"\n{\"id\":2,\"result\":\"b\"}\n{\"id\":3"));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+        assertEquals(1, decoder.getSkippedFrames());
+        frames = decoder.decode(read("}\n"));
+        assertEquals(1, frames.size());
+        assertEquals(3, ((JSONObject) frames.get(0)).getLong("id"));
+    }
+
+    @Test
+    public void malformedSplitFrameDoesNotPoisonTheNextOne() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        assertTrue(decoder.decode(read("{\"id\":1,")).isEmpty());
+        assertTrue(decoder.decode(read("\"result\"\n")).isEmpty());
+        assertEquals(0, decoder.getPendingSize());
+        assertEquals(1, decoder.getSkippedFrames());
+        List<Object> frames = decoder.decode(read("{\"id\":2,\"result\":\"b\"}\n"));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+    }
+
+    @Test
+    public void oversizedFrameOnASingleReadSkipped() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        // valid json, only too big
+        List<Object> frames = decoder.decode(read(bytes("{\"id\":1,\"result\":\""), filler(PivtrumPeer.JsonDecoder.MAX_FRAME_SIZE),
+                bytes("\"}\n{\"id\":2}\n")));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+        assertEquals(1, decoder.getSkippedFrames());
+    }
+
+    @Test
+    public void oversizedSplitFrameEndedByTheDelimiterKeepsTheNextOne() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        assertTrue(decoder.decode(read(filler(PivtrumPeer.JsonDecoder.MAX_FRAME_SIZE - 10))).isEmpty());
+        List<Object> frames = decoder.decode(read(filler(20), bytes("\n{\"id\":2}\n")));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+        assertEquals(1, decoder.getSkippedFrames());
+        assertEquals(0, decoder.getPendingSize());
+    }
+
+    @Test
+    public void oversizedTailDiscardedUpToTheDelimiter() throws Exception {
+        PivtrumPeer.JsonDecoder decoder = new PivtrumPeer.JsonDecoder();
+        assertEquals(1, decoder.decode(read(bytes("{\"id\":1}\n"), filler(PivtrumPeer.JsonDecoder.MAX_FRAME_SIZE + 1))).size());
+        assertEquals(0, decoder.getPendingSize());
+        assertTrue(decoder.decode(read(filler(100))).isEmpty());
+        List<Object> frames = decoder.decode(read(filler(10), bytes("\n{\"id\":2}\n")));
+        assertEquals(1, frames.size());
+        assertEquals(2, ((JSONObject) frames.get(0)).getLong("id"));
+        assertEquals(1, decoder.getSkippedFrames());
+    }
+
+    /**
+     * Same buffer state that the reader hands over: written and not flipped.
+     */
+    private static ByteBuffer read(String data) {
+        return read(bytes(data));
+    }
+
+    private static ByteBuffer read(byte[]... parts) {
+        int size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        for (byte[] part : parts) {
+            byteBuffer.put(part);
+        }
+        return byteBuffer;
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return frame content without delimiters
+     */
+    private static byte[] filler(int size) {
+        byte[] filler = new byte[size];
+        Arrays.fill(filler, (byte) 'a');
+        return filler;
+    }
+}
@@ -0,0 +1,63 @@
+package pivtrum;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PeerCacheTest {
+
+    @Test
+    public void discoveredPeersSurviveRestart() throws Exception {
+        JSONArray result = new JSONArray("[[\"83.212.117.180\", \"electrum.pivx.org\", [\"v1.0\", \"p10000\", \"t\", \"s995\"]]," +
+                "[\"10.0.0.1\", \"\", [\"v1.1\", \"t50010\"]]," +
+                "[\"10.0.0.2\", \"abcdef.onion\", [\"v1.0\", \"t\"]]]");
+        List<PivtrumPeerData> peers = PivtrumPeer.parsePeers(result);
+        assertEquals(2, peers.size());
+        PivtrumPeerData first = peers.get(0);
+        assertEquals("electrum.pivx.org", first.getHost());
+        assertEquals(NetworkConf.DEFAULT_TCP_PORT, first.getTcpPort());
+        assertEquals(995, first.getSslPort());
+        assertEquals("1.0", first.getVersion());
+        assertEquals(10000, first.getPrunningLimit());
+        assertEquals("10.0.0.1", peers.get(1).getHost());
+        assertEquals(50010, peers.get(1).getTcpPort());
+
+        File file = File.createTempFile("peers", ".cache");
+        try {
+            PeerCache cache = new PeerCache(file);
+            cache.addAll(peers);
+            cache.onConnected(peers.get(1));
+            cache.save();
+
+            PeerCache loaded = new PeerCache(file);
+            loaded.load();
+            assertEquals(2, loaded.size());
+            PeerCache.Entry entry = loaded.getEntry(peers.get(1));
+            assertEquals(1, entry.getSuccesses());
+            assertEquals("1.1", entry.getPeerData().getVersion());
+            assertNull(loaded.getEntry(new PivtrumPeerData("abcdef.onion", NetworkConf.DEFAULT_TCP_PORT, 0)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rankKnownGoodPeersFirstAndEvictTheWorst() {
+        PivtrumPeerData good = new PivtrumPeerData("good", 50001, 0);
+        PivtrumPeerData unknown = new PivtrumPeerData("unknown", 50001, 0);
+        PivtrumPeerData bad = new PivtrumPeerData("bad", 50001, 0);
+        PeerCache cache = new PeerCache(new File("unused"), 2);
+        cache.addAll(Arrays.asList(good, unknown));
+        cache.onConnected(good);
+        cache.onConnectionFailure(bad);
+        assertEquals(2, cache.size());
+        assertEquals(Arrays.asList(good, unknown), cache.getBestPeers(5));
+        assertEquals(Arrays.asList(good), cache.getBestPeers(1));
+    }
+}
@@ -0,0 +1,58 @@
+package pivtrum;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeerScoreTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void unknownRttUntilTheFirstResponse() {
+        PeerScore score = new PeerScore();
+        assertEquals(PeerScore.UNKNOWN_RTT_MSEC, score.getSmoothedRttMsec(), DELTA);
+        assertEquals(PeerScore.UNKNOWN_RTT_MSEC, score.getScore(), DELTA);
+        // a timeout doesn't give a rtt
+        score.onTimeout();
+        assertEquals(PeerScore.UNKNOWN_RTT_MSEC, score.getSmoothedRttMsec(), DELTA);
+    }
+
+    @Test
+    public void smoothedRtt() {
+        PeerScore score = new PeerScore();
+        score.onResponse(msec(100));
+        assertEquals(100, score.getSmoothedRttMsec(), DELTA);
+        score.onResponse(msec(200));
+        assertEquals(120, score.getSmoothedRttMsec(), DELTA);
+        score.onError(msec(20));
+        assertEquals(100, score.getSmoothedRttMsec(), DELTA);
+    }
+
+    @Test
+    public void errorAndTimeoutPenalties() {
+        PeerScore score = new PeerScore();
+        score.onError(msec(100));
+        assertEquals(0.2, score.getErrorRate(), DELTA);
+        assertEquals(100 * (1 + 4 * 0.2), score.getScore(), DELTA);
+        score.onResponse(msec(100));
+        assertEquals(0.16, score.getErrorRate(), DELTA);
+
+        score.onTimeout();
+        assertEquals(0.128, score.getErrorRate(), DELTA);
+        assertEquals(0.2, score.getTimeoutRate(), DELTA);
+        assertEquals(100 * (1 + 4 * 0.128 + 10 * 0.2), score.getScore(), DELTA);
+
+        // the penalties fade with the good responses
+        for (int i = 0; i < 100; i++) {
+            score.onResponse(msec(100));
+        }
+        assertEquals(100, score.getScore(), 1e-6);
+    }
+
+    private static long msec(long msec) {
+        return TimeUnit.MILLISECONDS.toNanos(msec);
+    }
+}
@@ -0,0 +1,415 @@
+package pivtrum;
+
+import org.furszy.client.IoManager;
+import org.furszy.client.exceptions.ConnectionFailureException;
+import org.junit.After;
+import org.junit.Before;
+import org.json.JSONException;
+import org.junit.Test;
+import org.pivxj.core.Base58;
+import org.pivxj.core.Sha256Hash;
+import org.pivxj.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import pivtrum.exceptions.RequestTimeoutException;
+import pivtrum.exceptions.ServerErrorException;
+import pivtrum.listeners.PeerDataListener;
+import pivtrum.listeners.PeerListener;
+import pivtrum.messages.BaseMsg;
+import pivtrum.messages.GetBalanceMsg;
+import pivtrum.messages.GetChunkMsg;
+import pivtrum.messages.GetHeader;
+import pivtrum.messages.Method;
+import pivtrum.messages.VersionMsg;
+import pivtrum.messages.responses.Balance;
+import pivtrum.messages.responses.MerkleProof;
+import pivtrum.messages.responses.StatusHistory;
+import pivtrum.messages.responses.Unspent;
+import pivtrum.utility.ScriptHash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PivtrumPeerServerTest {
+
+    private static final String ADDRESS = address(1);
+
+    private FakeElectrumServer server;
+    private IoManager ioManager;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeElectrumServer();
+        ioManager = FakeElectrumServer.newIoManager();
+    }
+
+    @After
+    public void tearDown() {
+        ioManager.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void scripthashMethodsOnNewServers() throws Exception {
+        server.setBalance(ADDRESS, 500, 20);
+        PivtrumPeer peer = connect(null);
+        assertEquals("1.4", peer.getProtocolVersion());
+        Balance balance = peer.getBalance(ADDRESS).get(5, TimeUnit.SECONDS);
+        assertEquals(500, balance.getConfirmed());
+        assertEquals(20, balance.getUnconfirmed());
+        assertEquals(1, server.getRequestCount(Method.SCRIPTHASH_GET_BALANCE));
+        assertEquals(0, server.getRequestCount(Method.GET_BALANCE));
+    }
+
+    @Test
+    public void addressMethodsOnLegacyServers() throws Exception {
+        server.setProtocolVersion("1.0");
+        server.setBalance(ADDRESS, 500, 0);
+        PivtrumPeer peer = connect(null);
+        assertEquals("1.0", peer.getProtocolVersion());
+        assertEquals(500, peer.getBalance(ADDRESS).get(5, TimeUnit.SECONDS).getConfirmed());
+        assertEquals(1, server.getRequestCount(Method.GET_BALANCE));
+    }
+
+    @Test
+    public void versionKeepaliveOnLegacyServers() throws Exception {
+        server.setProtocolVersion("1.0");
+        PivtrumPeer peer = connect(null);
+        peer.ping().get(5, TimeUnit.SECONDS);
+        // server.ping doesn't exist before 1.2
+        assertEquals(0, server.getRequestCount(Method.PING));
+        assertEquals(2, server.getRequestCount(Method.VERSION));
+        assertEquals(0, peer.getScore().getErrorRate(), 0);
+        assertEquals("1.0", peer.getProtocolVersion());
+    }
+
+    @Test
+    public void removedMethodsRejectedByVersion() throws Exception {
+        server.setHeaders(headers(10));
+        server.setBalance(ADDRESS, 500, 0);
+        PivtrumPeer peer = connect(null);
+        List<CompletableFuture<Object>> futures = peer.sendBatch(Arrays.asList(
+                new BaseMsg<>(Method.HEIGHT_SUBSCRIBE.getMethod()),
+                new GetBalanceMsg(ADDRESS),
+                new GetHeader(5),
+                new GetChunkMsg(0)
+        ));
+        for (CompletableFuture<Object> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("removed method answered");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServerErrorException);
+            }
+        }
+    }
+
+    @Test
+    public void headersByVersion() throws Exception {
+        List<byte[]> headers = headers(HeaderSync.CHUNK_SIZE + 100);
+        server.setHeaders(headers);
+        PivtrumPeer peer = connect(null);
+        waitForHeight(peer, headers.size() - 1);
+        assertEquals(7, peer.getHeader(7).get(5, TimeUnit.SECONDS).getVersion());
+        assertEquals(hex(headers.subList(HeaderSync.CHUNK_SIZE, headers.size())), peer.getChunk(1).get(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount(Method.BLOCK_HEADER));
+        assertEquals(1, server.getRequestCount(Method.BLOCK_HEADERS));
+        server.setHeight(headers.size() + 10);
+        waitForHeight(peer, headers.size() + 10);
+
+        // protocol 1.2 still has get_header and get_chunk, the tip is the deserialized header
+        server.setProtocolVersion("1.2");
+        server.setHeight(headers.size() - 1);
+        PivtrumPeer legacyPeer = connect(null);
+        assertEquals("1.2", legacyPeer.getProtocolVersion());
+        waitForHeight(legacyPeer, headers.size() - 1);
+        assertEquals(7, legacyPeer.getHeader(7).get(5, TimeUnit.SECONDS).getVersion());
+        assertEquals(hex(headers.subList(0, HeaderSync.CHUNK_SIZE)), legacyPeer.getChunk(0).get(5, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount(Method.GET_HEADER));
+        assertEquals(1, server.getRequestCount(Method.GET_CHUNK));
+        assertEquals(0, server.getRequestCount(Method.HEIGHT_SUBSCRIBE));
+    }
+
+    @Test
+    public void merkleProof() throws Exception {
+        server.putMerkleProof("aa", 100, Arrays.asList("bb", "cc"), 2);
+        PivtrumPeer peer = connect(null);
+        MerkleProof proof = peer.getMerkle("aa", 100).get(5, TimeUnit.SECONDS);
+        assertEquals(100, proof.getBlockHeight());
+        assertEquals(Arrays.asList("bb", "cc"), proof.getMerkle());
+        assertEquals(2, proof.getPos());
+    }
+
+    @Test
+    public void subscribedAddressNotified() throws Exception {
+        // the server resolves the scripthashes of its known addresses only
+        server.addAddress(ADDRESS);
+        final CountDownLatch notified = new CountDownLatch(1);
+        final AtomicReference<String> status = new AtomicReference<>();
+        PivtrumPeer peer = connect(new DataListener() {
+            @Override
+            public void onSubscribedAddressChange(PivtrumPeer pivtrumPeer, String address, String newStatus) {
+                if (newStatus != null && address.equals(ADDRESS)) {
+                    status.set(newStatus);
+                    notified.countDown();
+                }
+            }
+        });
+        peer.subscribeAddress(ADDRESS).get(5, TimeUnit.SECONDS);
+        server.addHistory(ADDRESS, "aa", 100);
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        assertEquals(server.status(ADDRESS), status.get());
+        // the locally hashed status matches the server one
+        StatusHistory history = peer.getHistory(ADDRESS).get(5, TimeUnit.SECONDS);
+        assertEquals(server.status(ADDRESS), history.getStatus());
+    }
+
+    @Test
+    public void droppedRequestTimesOut() throws Exception {
+        PivtrumPeer peer = connect(null);
+        peer.setRequestTimeoutMsec(300);
+        server.setDropRate(1);
+        try {
+            peer.ping().get(5, TimeUnit.SECONDS);
+            fail("dropped request completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RequestTimeoutException);
+        }
+        assertEquals(1, peer.getTimeoutCount(Method.PING));
+    }
+
+    @Test
+    public void failedHandlerDoesNotAbortTheBatch() throws Exception {
+        server.setBalance(ADDRESS, 500, 0);
+        PivtrumPeer peer = connect(null);
+        peer.setResponseHandler(Method.PING, (json, msg) -> {
+            throw new JSONException("bad response");
+        });
+        List<CompletableFuture<Object>> futures = peer.sendBatch(Arrays.asList(
+                new BaseMsg<>(Method.PING.getMethod()),
+                new GetBalanceMsg(ADDRESS, ScriptHash.of(ADDRESS))
+        ));
+        try {
+            futures.get(0).get(5, TimeUnit.SECONDS);
+            fail("failed handler completed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof JSONException);
+        }
+        assertEquals(500, ((Balance) futures.get(1).get(5, TimeUnit.SECONDS)).getConfirmed());
+        assertEquals(0, peer.getWaitingRequestsCount());
+    }
+
+    @Test
+    public void metricsSnapshot() throws Exception {
+        server.setBalance(ADDRESS, 500, 0);
+        PivtrumPeer peer = connect(null);
+        for (int i = 0; i < 3; i++) {
+            peer.getBalance(ADDRESS).get(5, TimeUnit.SECONDS);
+        }
+        PeerMetrics.Snapshot metrics = peer.getMetrics();
+        PeerMetrics.MethodSnapshot balance = metrics.getMethods().get(Method.SCRIPTHASH_GET_BALANCE);
+        assertEquals(3, balance.getRequests());
+        assertEquals(3, balance.getRtt().getCount());
+        assertEquals(0, balance.getErrors());
+        assertTrue(metrics.getMethods().containsKey(Method.VERSION));
+        assertTrue(metrics.getBytesIn() > 0);
+        assertTrue(metrics.getBytesOut() > 0);
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(1, metrics.getSessions());
+        assertEquals(0, metrics.getReconnects());
+    }
+
+    @Test
+    public void disconnectionNotified() throws Exception {
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        PivtrumPeer peer = connect(null);
+        peer.addPeerListener(new ConnectionListener(null, disconnected));
+        server.closeConnections();
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuedAndWaitingRequestsFailOnDisconnection() throws Exception {
+        PivtrumPeer peer = connect(null);
+        // the height subscription sent on connect
+        while (peer.getInFlightCount() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        server.setLatency(2000, 0);
+        peer.setMaxInFlightRequests(1);
+        List<CompletableFuture<Object>> pings = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            pings.add(peer.ping());
+        }
+        assertEquals(1, peer.getInFlightCount());
+        assertEquals(2, peer.getQueuedRequestsCount());
+        server.closeConnections();
+        for (CompletableFuture<Object> ping : pings) {
+            try {
+                ping.get(5, TimeUnit.SECONDS);
+                fail("request completed without session");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ConnectionFailureException);
+            }
+        }
+        assertEquals(0, peer.getQueuedRequestsCount());
+        assertEquals(0, peer.getWaitingRequestsCount());
+    }
+
+    @Test
+    public void cancelledRequestsLeaveTheWindow() throws Exception {
+        PivtrumPeer peer = connect(null);
+        while (peer.getInFlightCount() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        server.setLatency(2000, 0);
+        peer.setMaxInFlightRequests(1);
+        CompletableFuture<Object> written = peer.ping();
+        CompletableFuture<Object> queued = peer.ping();
+        CompletableFuture<Object> last = peer.ping();
+        assertEquals(1, peer.getInFlightCount());
+        assertEquals(2, peer.getQueuedRequestsCount());
+
+        // a cancelled queued request is never written
+        queued.cancel(false);
+        written.cancel(false);
+        assertEquals(0, peer.getQueuedRequestsCount());
+        assertEquals(1, peer.getInFlightCount());
+        assertEquals(1, peer.getWaitingRequestsCount());
+        last.cancel(false);
+        assertEquals(0, peer.getInFlightCount());
+        assertEquals(0, peer.getWaitingRequestsCount());
+        server.setLatency(0, 0);
+        peer.ping().get(5, TimeUnit.SECONDS);
+        assertEquals(3, server.getRequestCount(Method.PING));
+    }
+
+    /**
+     * Thousands of requests over a jittered link, every one is answered through the in-flight window.
+     */
+    @Test
+    public void loadWithLatencyAndJitter() throws Exception {
+        server.setBalance(ADDRESS, 1, 0);
+        server.setLatency(2, 5);
+        PivtrumPeer peer = connect(null);
+        int requests = 5000;
+        List<CompletableFuture<Balance>> futures = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            futures.add(peer.getBalance(ADDRESS));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        assertEquals(requests, server.getRequestCount(Method.SCRIPTHASH_GET_BALANCE));
+        assertEquals(0, peer.getWaitingRequestsCount());
+    }
+
+    private PivtrumPeer connect(PeerDataListener dataListener) throws Exception {
+        PivtrumPeer peer = new PivtrumPeer(server.getPeerData(), ioManager, new VersionMsg("test", "1.4", "1.0"));
+        CountDownLatch connected = new CountDownLatch(1);
+        peer.addPeerListener(new ConnectionListener(connected, null));
+        if (dataListener != null) peer.addPeerDataListener(dataListener);
+        peer.connect();
+        assertTrue("not connected", connected.await(10, TimeUnit.SECONDS));
+        return peer;
+    }
+
+    /**
+     * @return deterministic pay to pubkey hash address
+     */
+    /**
+     * Raw headers, not a valid chain, the version is the height.
+     */
+    private static List<byte[]> headers(int count) {
+        List<byte[]> headers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] header = new byte[HeaderStore.HEADER_SIZE];
+            Utils.uint32ToByteArrayLE(i, header, 0);
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    private static String hex(List<byte[]> headers) {
+        StringBuilder hex = new StringBuilder();
+        for (byte[] header : headers) {
+            hex.append(Utils.HEX.encode(header));
+        }
+        return hex.toString();
+    }
+
+    private static void waitForHeight(PivtrumPeer peer, long height) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (peer.getHeight() != height) {
+            if (System.currentTimeMillis() > deadline) fail("height " + peer.getHeight() + ", expected " + height);
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    static String address(int seed) {
+        byte[] bytes = new byte[25];
+        bytes[0] = 30;
+        // uniformly distributed hash160 like the real ones
+        byte[] hash160 = Sha256Hash.hash(new byte[]{(byte) (seed >> 24), (byte) (seed >> 16), (byte) (seed >> 8), (byte) seed});
+        System.arraycopy(hash160, 0, bytes, 1, 20);
+        byte[] checksum = Sha256Hash.hashTwice(bytes, 0, 21);
+        System.arraycopy(checksum, 0, bytes, 21, 4);
+        return Base58.encode(bytes);
+    }
+
+    private static class ConnectionListener implements PeerListener {
+
+        private final CountDownLatch connected;
+        private final CountDownLatch disconnected;
+
+        ConnectionListener(CountDownLatch connected, CountDownLatch disconnected) {
+            this.connected = connected;
+            this.disconnected = disconnected;
+        }
+
+        @Override
+        public void onConnected(PivtrumPeer pivtrumPeer) {
+            if (connected != null) connected.countDown();
+        }
+
+        @Override
+        public void onDisconnected(PivtrumPeer pivtrumPeer) {
+            if (disconnected != null) disconnected.countDown();
+        }
+
+        @Override
+        public void onExceptionCaught(PivtrumPeer pivtrumPeer, Exception e) {
+
+        }
+    }
+
+    static class DataListener implements PeerDataListener {
+
+        @Override
+        public void onSubscribedAddressChange(PivtrumPeer pivtrumPeer, String address, String status) {
+
+        }
+
+        @Override
+        public void onListUnpent(PivtrumPeer pivtrumPeer, String address, List<Unspent> unspent) {
+
+        }
+
+        @Override
+        public void onBalanceReceive(PivtrumPeer pivtrumPeer, String address, long confirmed, long unconfirmed) {
+
+        }
+
+        @Override
+        public void onGetHistory(PivtrumPeer pivtrumPeer, StatusHistory statusHistory) {
+
+        }
+    }
+}
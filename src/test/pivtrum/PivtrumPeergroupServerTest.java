@@ -0,0 +1,255 @@
+package pivtrum;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import pivtrum.listeners.AddressListener;
+import pivtrum.messages.Method;
+import store.AddressBalance;
+import store.AddressNotFoundException;
+import store.AddressStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PivtrumPeergroupServerTest {
+
+    private FakeElectrumServer trustedServer;
+    private FakeElectrumServer secondServer;
+    private MemoryAddressStore addressStore;
+    private PivtrumPeergroup peergroup;
+
+    @Before
+    public void setUp() throws Exception {
+        trustedServer = new FakeElectrumServer();
+        secondServer = new FakeElectrumServer();
+        addressStore = new MemoryAddressStore();
+    }
+
+    @After
+    public void tearDown() {
+        if (peergroup != null) peergroup.shutdown();
+        trustedServer.close();
+        secondServer.close();
+    }
+
+    @Test
+    public void balanceChangeNotified() throws Exception {
+        final String address = PivtrumPeerServerTest.address(1);
+        addressStore.insert(address, new AddressBalance());
+        trustedServer.setBalance(address, 700, 0);
+        peergroup = newPeergroup(false);
+        final CountDownLatch notified = new CountDownLatch(1);
+        peergroup.addAddressListener(new AddressListener() {
+            @Override
+            public void onBalanceChange(String changed, long confirmed, long unconfirmed, int numConfirmations) {
+                if (changed.equals(address) && confirmed == 700) notified.countDown();
+            }
+        });
+        peergroup.start();
+        waitFor(() -> trustedServer.getSubscribedAddresses().contains(address));
+
+        trustedServer.addHistory(address, "aa", 100);
+        assertTrue(notified.await(10, TimeUnit.SECONDS));
+        assertEquals(trustedServer.status(address), addressStore.getAddressStatus(address).getStatus());
+    }
+
+    @Test
+    public void shardRehomedWhenPeerLeaves() throws Exception {
+        int addresses = 100;
+        for (int i = 0; i < addresses; i++) {
+            String address = PivtrumPeerServerTest.address(i);
+            addressStore.insert(address, new AddressBalance());
+            trustedServer.addAddress(address);
+            secondServer.addAddress(address);
+        }
+        peergroup = newPeergroup(true);
+        peergroup.start();
+        // the trusted peer joins the ring alone, the second one takes its part when it connects
+        waitFor(() -> trustedServer.getSubscribedAddresses().size() == addresses);
+        // the batch is subscribed address by address, the shard is read once it is filled
+        waitFor(() -> secondServer.getSubscribedAddresses().size() > addresses / 5);
+        int secondShard = secondServer.getSubscribedAddresses().size();
+        assertTrue("unbalanced shard: " + secondShard, secondShard < addresses * 4 / 5);
+
+        // the trusted server drops, its shard moves to the second one
+        trustedServer.closeConnections();
+        waitFor(() -> secondServer.getSubscribedAddresses().size() == addresses);
+        assertEquals(addresses, new HashSet<>(secondServer.getSubscribedAddresses()).size());
+    }
+
+    @Test
+    public void trustedPeerReconnectsAndResubscribes() throws Exception {
+        final String unchanged = PivtrumPeerServerTest.address(1);
+        final String changed = PivtrumPeerServerTest.address(2);
+        final String empty = PivtrumPeerServerTest.address(3);
+        for (String address : Arrays.asList(unchanged, changed, empty)) {
+            addressStore.insert(address, new AddressBalance());
+            trustedServer.addAddress(address);
+        }
+        trustedServer.addHistory(unchanged, "aa", 100);
+        trustedServer.addHistory(changed, "bb", 100);
+        peergroup = newPeergroup(false);
+        peergroup.setReconnectDelays(50, 200);
+        peergroup.start();
+        waitFor(() -> trustedServer.getSubscribedAddresses().size() == 3);
+        // the addresses with history are refreshed once
+        waitFor(() -> trustedServer.getRequestCount(Method.SCRIPTHASH_GET_HISTORY) == 2);
+        waitFor(() -> peergroup.getConnectedPeers().get(0).getWaitingRequestsCount() == 0);
+
+        // the history changes while the wallet is disconnected, nobody is notified
+        trustedServer.closeConnections();
+        trustedServer.addHistory(changed, "cc", 101);
+        waitFor(() -> peergroup.getMetrics().getReconnects() == 1);
+        waitFor(() -> trustedServer.getSubscribedAddresses().size() == 3);
+        waitFor(() -> trustedServer.status(changed).equals(storedStatus(changed)));
+        waitFor(() -> trustedServer.getRequestCount(Method.SCRIPTHASH_GET_HISTORY) == 3);
+        // a late refresh of the unchanged addresses would be in the same debounced batch
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(3, trustedServer.getRequestCount(Method.SCRIPTHASH_GET_HISTORY));
+        assertEquals(trustedServer.status(unchanged), storedStatus(unchanged));
+    }
+
+    @Test
+    public void reconnectingPeerNotDialedTwice() throws Exception {
+        peergroup = newPeergroup(true);
+        peergroup.setReconnectDelays(100, 100);
+        peergroup.start();
+        waitFor(() -> peergroup.getConnectedPeers().size() == 2);
+
+        // the second server accepts the reconnection but never finishes the handshake
+        secondServer.setLatency(60000, 0);
+        secondServer.closeConnections();
+        waitFor(() -> peergroup.getConnectedPeers().size() == 1);
+        // the trusted peer connects the network servers again once it is back
+        trustedServer.closeConnections();
+        waitFor(() -> peergroup.getMetrics().getReconnects() == 1);
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertTrue("duplicate connections", secondServer.getConnectionsCount() <= 1);
+    }
+
+    @Test
+    public void startCandidatesRacePromotesTheFirstHandshake() throws Exception {
+        FakeElectrumServer slowServer = new FakeElectrumServer();
+        FakeElectrumServer cachedServer = new FakeElectrumServer();
+        File cacheFile = File.createTempFile("peers", ".cache");
+        try {
+            trustedServer.setLatency(1500, 0);
+            slowServer.setLatency(500, 0);
+            NetworkConf networkConf = new NetworkConf();
+            networkConf.setTrustedServer(trustedServer.getPeerData());
+            networkConf.addPeers(Arrays.asList(address(secondServer), address(slowServer)));
+            // the cached server answers first but it is not a start candidate
+            PeerCache peerCache = new PeerCache(cacheFile);
+            peerCache.addAll(Collections.singletonList(cachedServer.getPeerData()));
+            FakeElectrumServer.resetIoManagerIds();
+            peergroup = new PivtrumPeergroup(networkConf);
+            peergroup.setAddressStore(addressStore);
+            peergroup.setPeerCache(peerCache);
+            peergroup.setStartCandidates(3);
+            peergroup.start();
+
+            waitFor(() -> peergroup.isRunning());
+            assertEquals(secondServer.getPeerData(), peergroup.getMetrics().getTrustedPeer().getPeerData());
+            // the trusted server address is closed, the slow candidate continues as non trusted peer
+            waitFor(() -> trustedServer.getConnectionsCount() == 0);
+            waitFor(() -> peergroup.getConnectedPeers().size() == 3);
+            Set<PivtrumPeerData> connected = new HashSet<>();
+            for (PivtrumPeer peer : peergroup.getConnectedPeers()) {
+                connected.add(peer.getPeerData());
+            }
+            assertEquals(new HashSet<>(Arrays.asList(secondServer.getPeerData(), slowServer.getPeerData(), cachedServer.getPeerData())), connected);
+            assertEquals(1, secondServer.getConnectionsCount());
+            assertEquals(1, slowServer.getConnectionsCount());
+        } finally {
+            peergroup.shutdown();
+            peergroup = null;
+            slowServer.close();
+            cachedServer.close();
+            cacheFile.delete();
+        }
+    }
+
+    private static InetSocketAddress address(FakeElectrumServer server) {
+        PivtrumPeerData peerData = server.getPeerData();
+        return new InetSocketAddress(peerData.getHost(), peerData.getTcpPort());
+    }
+
+    private PivtrumPeergroup newPeergroup(boolean sharding) throws Exception {
+        NetworkConf networkConf = new NetworkConf();
+        networkConf.setTrustedServer(trustedServer.getPeerData());
+        if (sharding) {
+            networkConf.addPeers(Collections.singletonList(address(secondServer)));
+        }
+        FakeElectrumServer.resetIoManagerIds();
+        PivtrumPeergroup peergroup = new PivtrumPeergroup(networkConf);
+        peergroup.setAddressStore(addressStore);
+        peergroup.setRefreshDebounceMsec(20);
+        // a dropped server stays down during the test
+        peergroup.setReconnectDelays(60000, 60000);
+        if (sharding) peergroup.enableSharding(1);
+        return peergroup;
+    }
+
+    private String storedStatus(String address) {
+        try {
+            return addressStore.getAddressStatus(address).getStatus();
+        } catch (AddressNotFoundException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("condition not reached");
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+    }
+
+    static class MemoryAddressStore implements AddressStore {
+
+        private final Map<String, AddressBalance> addresses = new ConcurrentHashMap<>();
+
+        @Override
+        public void insert(String address, AddressBalance addressBalance) {
+            addresses.put(address, addressBalance);
+        }
+
+        @Override
+        public AddressBalance getAddressStatus(String address) throws AddressNotFoundException {
+            AddressBalance addressBalance = addresses.get(address);
+            if (addressBalance == null) throw new AddressNotFoundException(address);
+            return addressBalance;
+        }
+
+        @Override
+        public Collection<AddressBalance> listBalance() {
+            return addresses.values();
+        }
+
+        @Override
+        public Map<String, AddressBalance> map() {
+            return addresses;
+        }
+
+        @Override
+        public boolean contains(String address) {
+            return addresses.containsKey(address);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package pivtrum;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import pivtrum.messages.VersionMsg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Peergroup helpers without servers.
+ */
+
+public class PivtrumPeergroupTest {
+
+    @Test
+    public void backoffDelayBounds() {
+        for (int i = 0; i < 1000; i++) {
+            assertBetween(50, 100, PivtrumPeergroup.backoffDelay(1, 100, 10000));
+            assertBetween(200, 400, PivtrumPeergroup.backoffDelay(3, 100, 10000));
+            // capped by the max delay
+            assertBetween(5000, 10000, PivtrumPeergroup.backoffDelay(8, 100, 10000));
+            assertBetween(5000, 10000, PivtrumPeergroup.backoffDelay(Integer.MAX_VALUE, 100, 10000));
+            // the shift overflows
+            assertBetween(5000, 10000, PivtrumPeergroup.backoffDelay(20, Long.MAX_VALUE / 4, 10000));
+        }
+    }
+
+    @Test
+    public void bestPeersByScore() {
+        PivtrumPeer fast = peer(50);
+        PivtrumPeer slow = peer(300);
+        // fast but timing out
+        PivtrumPeer timingOut = peer(50);
+        timingOut.getScore().onTimeout();
+        timingOut.getScore().onTimeout();
+        PivtrumPeer unknown = peer(0);
+        List<PivtrumPeer> peers = Arrays.asList(unknown, slow, timingOut, fast);
+
+        assertEquals(Arrays.asList(fast, timingOut, slow, unknown), PivtrumPeergroup.getBestPeers(peers, 10));
+        assertEquals(Arrays.asList(fast, timingOut), PivtrumPeergroup.getBestPeers(peers, 2));
+        assertEquals(0, PivtrumPeergroup.getBestPeers(peers, 0).size());
+    }
+
+    /**
+     * @param rttMsec -> response time of the peer, 0 for a peer without responses
+     */
+    private static PivtrumPeer peer(long rttMsec) {
+        PivtrumPeer peer = new PivtrumPeer(new PivtrumPeerData("localhost", 0, 0), null, new VersionMsg("test", "1.4", "1.0"));
+        if (rttMsec > 0) peer.getScore().onResponse(TimeUnit.MILLISECONDS.toNanos(rttMsec));
+        return peer;
+    }
+
+    private static void assertBetween(long min, long max, long value) {
+        assertTrue(value + " not between " + min + " and " + max, value >= min && value <= max);
+    }
+}
@@ -0,0 +1,79 @@
+package pivtrum;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pivtrum.exceptions.QuorumNotReachedException;
+import pivtrum.listeners.QuorumListener;
+import pivtrum.messages.Method;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuorumVerifierTest {
+
+    @Test
+    public void completeWhenQuorumAgreesAndCancelStragglers() throws Exception {
+        List<PivtrumPeer> peers = peers(3);
+        Map<PivtrumPeer, CompletableFuture<String>> requests = new HashMap<>();
+        QuorumVerifier verifier = new QuorumVerifier(2);
+        CompletableFuture<QuorumVerifier.Result<String>> result = verifier.verify("address", Method.GET_ADDRESS_HISTORY, peers,
+                peer -> futureOf(requests, peer), status -> status);
+        requests.get(peers.get(0)).complete("status");
+        assertFalse(result.isDone());
+        requests.get(peers.get(1)).complete("status");
+        assertTrue(result.isDone());
+        assertEquals("status", result.get().getValue());
+        assertEquals(2, result.get().getAgreeingPeers().size());
+        assertTrue(requests.get(peers.get(2)).isCancelled());
+    }
+
+    @Test
+    public void reportDisagreementWhenQuorumIsNotReachable() throws Exception {
+        List<PivtrumPeer> peers = peers(3);
+        Map<PivtrumPeer, CompletableFuture<String>> requests = new HashMap<>();
+        QuorumVerifier verifier = new QuorumVerifier(3);
+        final AtomicInteger disagreements = new AtomicInteger();
+        verifier.addQuorumListener(new QuorumListener() {
+            @Override
+            public void onDisagreement(String address, Method method, Map<PivtrumPeer, Object> responses, boolean quorumReached) {
+                assertFalse(quorumReached);
+                assertEquals(2, responses.size());
+                disagreements.incrementAndGet();
+            }
+        });
+        CompletableFuture<QuorumVerifier.Result<String>> result = verifier.verify("address", Method.GET_ADDRESS_HISTORY, peers,
+                peer -> futureOf(requests, peer), status -> status);
+        requests.get(peers.get(0)).complete("a");
+        requests.get(peers.get(1)).complete("b");
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(1, disagreements.get());
+        try {
+            result.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QuorumNotReachedException);
+        }
+    }
+
+    private static CompletableFuture<String> futureOf(Map<PivtrumPeer, CompletableFuture<String>> requests, PivtrumPeer peer) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        requests.put(peer, future);
+        return future;
+    }
+
+    private static List<PivtrumPeer> peers(int amount) {
+        List<PivtrumPeer> peers = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            peers.add(new PivtrumPeer(new PivtrumPeerData("peer" + i, 50001, 0), null, null));
+        }
+        return peers;
+    }
+}
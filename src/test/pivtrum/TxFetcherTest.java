@@ -0,0 +1,168 @@
+package pivtrum;
+
+import org.junit.Test;
+import org.pivxj.core.Coin;
+import org.pivxj.core.NetworkParameters;
+import org.pivxj.core.Transaction;
+import org.pivxj.core.TransactionInput;
+import org.pivxj.core.TransactionOutput;
+import org.pivxj.core.Utils;
+import org.pivxj.core.VerificationException;
+import org.pivxj.params.MainNetParams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import pivtrum.messages.VersionMsg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TxFetcherTest {
+
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    private final StubPeer peer = new StubPeer();
+
+    @Test
+    public void concurrentRequestsShareOneFetch() throws Exception {
+        Transaction tx = tx(1);
+        TxFetcher fetcher = new TxFetcher(PARAMS, () -> peer, 10);
+        CompletableFuture<Transaction> first = fetcher.getTransaction(tx.getHashAsString());
+        CompletableFuture<Transaction> second = fetcher.getTransaction(tx.getHashAsString());
+        CompletableFuture<Transaction> cancelled = fetcher.getTransaction(tx.getHashAsString());
+        assertEquals(1, peer.requests.size());
+        assertEquals(1, fetcher.getInFlightCount());
+
+        // a cancelled caller doesn't cancel the shared fetch
+        cancelled.cancel(false);
+        peer.requests.get(0).complete(hex(tx));
+        assertEquals(tx.getHash(), first.get(5, TimeUnit.SECONDS).getHash());
+        assertEquals(tx.getHash(), second.get(5, TimeUnit.SECONDS).getHash());
+        assertEquals(0, fetcher.getInFlightCount());
+        assertEquals(1, fetcher.getCachedCount());
+
+        fetcher.getTransaction(tx.getHashAsString()).get(5, TimeUnit.SECONDS);
+        assertEquals(1, peer.requests.size());
+    }
+
+    @Test
+    public void hashCaseIgnored() throws Exception {
+        Transaction tx = tx(1);
+        TxFetcher fetcher = new TxFetcher(PARAMS, () -> peer, 10);
+        CompletableFuture<Transaction> upper = fetcher.getTransaction(tx.getHashAsString().toUpperCase(Locale.ROOT));
+        CompletableFuture<Transaction> lower = fetcher.getTransaction(tx.getHashAsString());
+        assertEquals(1, peer.requests.size());
+        peer.requests.get(0).complete(hex(tx));
+        assertEquals(tx.getHash(), upper.get(5, TimeUnit.SECONDS).getHash());
+        assertEquals(tx.getHash(), lower.get(5, TimeUnit.SECONDS).getHash());
+        assertEquals(1, fetcher.getCachedCount());
+    }
+
+    @Test
+    public void otherTransactionRejected() throws Exception {
+        Transaction tx = tx(1);
+        TxFetcher fetcher = new TxFetcher(PARAMS, () -> peer, 10);
+        CompletableFuture<Transaction> future = fetcher.getTransaction(tx.getHashAsString());
+        peer.requests.get(0).complete(hex(tx(2)));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("other transaction accepted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof VerificationException);
+        }
+        assertEquals(0, fetcher.getInFlightCount());
+        assertEquals(0, fetcher.getCachedCount());
+
+        // not cached, requested again
+        future = fetcher.getTransaction(tx.getHashAsString());
+        assertEquals(2, peer.requests.size());
+        peer.requests.get(1).complete(hex(tx));
+        assertEquals(tx.getHash(), future.get(5, TimeUnit.SECONDS).getHash());
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        Transaction a = tx(1);
+        Transaction b = tx(2);
+        Transaction c = tx(3);
+        peer.answerRightAway = true;
+        peer.known(a, b, c);
+        TxFetcher fetcher = new TxFetcher(PARAMS, () -> peer, 2);
+        fetcher.getTransaction(a.getHashAsString()).get(5, TimeUnit.SECONDS);
+        fetcher.getTransaction(b.getHashAsString()).get(5, TimeUnit.SECONDS);
+        // a is used again, b is the eldest one
+        fetcher.getTransaction(a.getHashAsString()).get(5, TimeUnit.SECONDS);
+        fetcher.getTransaction(c.getHashAsString()).get(5, TimeUnit.SECONDS);
+        assertEquals(3, peer.requests.size());
+        assertEquals(2, fetcher.getCachedCount());
+
+        fetcher.getTransaction(a.getHashAsString()).get(5, TimeUnit.SECONDS);
+        assertEquals(3, peer.requests.size());
+        fetcher.getTransaction(b.getHashAsString()).get(5, TimeUnit.SECONDS);
+        assertEquals(4, peer.requests.size());
+    }
+
+    @Test
+    public void peerFailureNotCached() throws Exception {
+        Transaction tx = tx(1);
+        TxFetcher fetcher = new TxFetcher(PARAMS, () -> {
+            throw new IllegalStateException("Not connected peer");
+        }, 10);
+        CompletableFuture<Transaction> future = fetcher.getTransaction(tx.getHashAsString());
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(0, fetcher.getInFlightCount());
+        assertEquals(0, fetcher.getCachedCount());
+    }
+
+    /**
+     * @param seed -> changes the hash
+     */
+    private static Transaction tx(int seed) {
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(new TransactionInput(PARAMS, tx, new byte[]{(byte) seed}));
+        tx.addOutput(new TransactionOutput(PARAMS, tx, Coin.valueOf(seed), new byte[0]));
+        return tx;
+    }
+
+    private static String hex(Transaction tx) {
+        return Utils.HEX.encode(tx.bitcoinSerialize());
+    }
+
+    /**
+     * Peer without connection, the test completes the requests.
+     */
+    private static class StubPeer extends PivtrumPeer {
+
+        private final List<CompletableFuture<String>> requests = new ArrayList<>();
+        private final List<Transaction> known = new ArrayList<>();
+        private boolean answerRightAway;
+
+        StubPeer() {
+            super(new PivtrumPeerData("localhost", 0, 0), null, new VersionMsg("test", "1.4", "1.0"));
+        }
+
+        void known(Transaction... txs) {
+            for (Transaction tx : txs) {
+                known.add(tx);
+            }
+        }
+
+        @Override
+        public synchronized CompletableFuture<String> getTx(String txHash) {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            requests.add(request);
+            if (answerRightAway) {
+                for (Transaction tx : known) {
+                    if (tx.getHashAsString().equals(txHash)) request.complete(hex(tx));
+                }
+            }
+            return request;
+        }
+    }
+}
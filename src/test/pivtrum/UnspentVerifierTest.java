@@ -0,0 +1,36 @@
+package pivtrum;
+
+import org.junit.Test;
+import org.pivxj.core.Sha256Hash;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class UnspentVerifierTest {
+
+    @Test
+    public void computeRootFromBranch() {
+        byte[] tx0 = hash(0), tx1 = hash(1), tx2 = hash(2), tx3 = hash(3);
+        byte[] left = Sha256Hash.hashTwice(tx0, 0, 32, tx1, 0, 32);
+        byte[] right = Sha256Hash.hashTwice(tx2, 0, 32, tx3, 0, 32);
+        byte[] root = Sha256Hash.hashTwice(left, 0, 32, right, 0, 32);
+
+        // tx2 is paired with tx3 and then with the left node
+        assertArrayEquals(root, UnspentVerifier.computeMerkleRoot(display(tx2), Arrays.asList(display(tx3), display(left)), 2));
+        assertArrayEquals(root, UnspentVerifier.computeMerkleRoot(display(tx1), Arrays.asList(display(tx0), display(right)), 1));
+        // single transaction block, the root is the tx hash
+        assertArrayEquals(tx0, UnspentVerifier.computeMerkleRoot(display(tx0), Collections.<String>emptyList(), 0));
+    }
+
+    private static byte[] hash(int i) {
+        return Sha256Hash.hash(new byte[]{(byte) i});
+    }
+
+    /** reversed hex, as the server sends the hashes */
+    private static String display(byte[] hash) {
+        return Hex.toHexString(Sha256Hash.wrap(hash).getReversedBytes());
+    }
+}
@@ -0,0 +1,56 @@
+package pivtrum.messages;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonByteWriterTest {
+
+    @Test
+    public void writeSameContentThanToJson() {
+        BaseMsg<?>[] msgs = {
+                new SubscribeAddressMsg("yCRaSQvLd5a9VFFv9dzns2zNMJhWyymtAd"),
+                new GetHeader(131213),
+                new GetTxMsg("d2b6046de1febf450f416eef820ecdfee30112d7522bc9470fb0ae44fc704e02"),
+                new VersionMsg("pivx_mobile", "2.9.5", "1.0"),
+                new BaseMsg<>(Method.GET_PEERS.getMethod())
+        };
+        // small buffer to force the growth
+        JsonByteWriter writer = new JsonByteWriter(8);
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i].setId(Long.MAX_VALUE - i);
+            writer.reset();
+            msgs[i].write(writer);
+            assertEquals(msgs[i].toJson().toString(), new JSONObject(read(writer)).toString());
+        }
+    }
+
+    @Test
+    public void writeEscapedStringsAndArrays() {
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.beginArray()
+                .value("quote\" back\\ line\n ñ €")
+                .value(-42)
+                .value(Long.MIN_VALUE)
+                .beginObject().name("a").value((String) null).endObject()
+                .endArray();
+        JSONArray array = new JSONArray(read(writer));
+        assertEquals("quote\" back\\ line\n ñ €", array.getString(0));
+        assertEquals(-42, array.getLong(1));
+        assertEquals(Long.MIN_VALUE, array.getLong(2));
+        assertEquals(1, array.getJSONObject(3).length());
+    }
+
+    private static String read(JsonByteWriter writer) {
+        ByteBuffer buffer = writer.getBuffer().duplicate();
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
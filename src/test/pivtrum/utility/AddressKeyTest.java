@@ -0,0 +1,43 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+import org.pivxj.core.Base58;
+import org.pivxj.core.Sha256Hash;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AddressKeyTest {
+
+    @Test
+    public void roundTripBase58() throws Exception {
+        byte[] hash160 = new byte[20];
+        Arrays.fill(hash160, (byte) 7);
+        String pubKeyHash = base58(30, hash160);
+        String scriptHash = base58(13, hash160);
+
+        AddressKey key = AddressKey.fromBase58(pubKeyHash);
+        assertEquals(pubKeyHash, key.toBase58());
+        assertArrayEquals(hash160, key.getHash160());
+        assertEquals(scriptHash, AddressKey.fromBase58(scriptHash).toBase58());
+
+        Set<AddressKey> keys = new HashSet<>();
+        assertTrue(keys.add(key));
+        assertFalse(keys.add(AddressKey.fromBase58(pubKeyHash)));
+        assertTrue(keys.add(AddressKey.fromBase58(scriptHash)));
+    }
+
+    private static String base58(int version, byte[] hash160) {
+        byte[] bytes = new byte[25];
+        bytes[0] = (byte) version;
+        System.arraycopy(hash160, 0, bytes, 1, 20);
+        System.arraycopy(Sha256Hash.hashTwice(bytes, 0, 21), 0, bytes, 21, 4);
+        return Base58.encode(bytes);
+    }
+}
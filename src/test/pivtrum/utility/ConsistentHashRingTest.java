@@ -0,0 +1,61 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashRingTest {
+
+    @Test
+    public void removeOnlyMovesTheNodeKeys() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < 5; i++) {
+            ring.add("peer" + i, "host" + i + ":50001");
+        }
+        Random random = new Random(1);
+        Map<Integer, String> owners = new HashMap<>();
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int key = random.nextInt();
+            String owner = ring.getOwners(key, 1).get(0);
+            owners.put(key, owner);
+            load.merge(owner, 1, Integer::sum);
+        }
+        // roughly even, 2000 keys per node
+        for (int count : load.values()) {
+            assertTrue("unbalanced: " + load, count > 1000 && count < 3000);
+        }
+
+        assertTrue(ring.remove("peer2"));
+        assertFalse(ring.contains("peer2"));
+        for (Map.Entry<Integer, String> entry : owners.entrySet()) {
+            String owner = ring.getOwners(entry.getKey(), 1).get(0);
+            if (entry.getValue().equals("peer2")) {
+                assertFalse(owner.equals("peer2"));
+            } else {
+                assertEquals(entry.getValue(), owner);
+            }
+        }
+    }
+
+    @Test
+    public void replicasAreDistinct() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        ring.add("a", "a");
+        ring.add("b", "b");
+        ring.add("c", "c");
+        List<String> owners = ring.getOwners(12345, 2);
+        assertEquals(2, owners.size());
+        assertFalse(owners.get(0).equals(owners.get(1)));
+        // not enough nodes
+        assertEquals(3, ring.getOwners(12345, 5).size());
+        assertEquals(0, new ConsistentHashRing<String>().getOwners(1, 1).size());
+    }
+}
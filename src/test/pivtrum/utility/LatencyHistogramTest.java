@@ -0,0 +1,38 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(micros <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) assertTrue(micros > LatencyHistogram.upperBound(bucket - 1));
+        }
+        // out of range samples go to the last bucket
+        assertEquals(LatencyHistogram.bucket((1L << 36) - 1), LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int msec = 1; msec <= 1000; msec++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(msec));
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500.5, snapshot.getMeanMsec(), 0.001);
+        assertEquals(1000, snapshot.getMaxMsec(), 0.001);
+        assertEquals(500, snapshot.getPercentileMsec(50), 500 * 0.25);
+        assertEquals(990, snapshot.getPercentileMsec(99), 990 * 0.25);
+        assertEquals(1000, snapshot.getPercentileMsec(100), 0.001);
+        assertEquals(0, new LatencyHistogram().snapshot().getPercentileMsec(50), 0);
+    }
+}
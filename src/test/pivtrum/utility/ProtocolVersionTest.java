@@ -0,0 +1,36 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProtocolVersionTest {
+
+    @Test
+    public void compareAndSupported() {
+        assertEquals(0, ProtocolVersion.compare("1.0", "1.0.0"));
+        assertTrue(ProtocolVersion.compare("1.10", "1.4") > 0);
+        assertTrue(ProtocolVersion.isSupported("1.2", "1.0", "1.4"));
+        assertFalse(ProtocolVersion.isSupported("1.4.1", "1.0", "1.4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidVersion() {
+        ProtocolVersion.compare("1.x", "1.0");
+    }
+
+    @Test
+    public void methodsByVersion() {
+        assertFalse(ProtocolVersion.supportsScripthash("1.0"));
+        assertTrue(ProtocolVersion.supportsScripthash("1.1"));
+        assertFalse(ProtocolVersion.supportsHeadersSubscribe("1.0"));
+        assertTrue(ProtocolVersion.supportsHeadersSubscribe("1.1"));
+        assertTrue(ProtocolVersion.supportsAddressMethods("1.1"));
+        assertFalse(ProtocolVersion.supportsAddressMethods("1.2"));
+        assertFalse(ProtocolVersion.supportsBlockHeaders("1.2"));
+        assertTrue(ProtocolVersion.supportsBlockHeaders("1.3"));
+        assertTrue(ProtocolVersion.supportsBlockHeaders("1.4"));
+    }
+}
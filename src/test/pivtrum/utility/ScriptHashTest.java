@@ -0,0 +1,15 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScriptHashTest {
+
+    @Test
+    public void pubKeyHashScript() throws Exception {
+        // protocol docs example, the genesis block coinbase address
+        assertEquals("8b01df4e368ea28f8dc0423bcf7a4923e3a12d307c875e47a0cfbf90b5c39161",
+                ScriptHash.of("1A1zP1eP5QGefi2DMPTfTL5SLmv7DivfNa"));
+    }
+}
@@ -0,0 +1,54 @@
+package pivtrum.utility;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StatusHasherTest {
+
+    @Test
+    public void incrementalStatusMatchesFullHash() throws Exception {
+        StatusHasher hasher = new StatusHasher();
+        List<TxHashHeightWrapper> history = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            history.add(new TxHashHeightWrapper(txHash(i), 1000 + i));
+        }
+        history.add(new TxHashHeightWrapper(txHash(100), 0));
+        assertEquals(fullStatus(history), hasher.status("address", history));
+        assertEquals(1, hasher.getCachedAddressesCount());
+
+        // mempool tx confirmed plus new confirmed and mempool entries
+        history.set(40, new TxHashHeightWrapper(txHash(100), 1040));
+        history.add(new TxHashHeightWrapper(txHash(101), 1041));
+        history.add(new TxHashHeightWrapper(txHash(102), -1));
+        assertEquals(fullStatus(history), hasher.status("address", history));
+
+        // reorg of the last cached entry
+        history.set(41, new TxHashHeightWrapper(txHash(101), 1042));
+        assertEquals(fullStatus(history), hasher.status("address", history));
+
+        // shorter history than the cached prefix
+        List<TxHashHeightWrapper> shorter = new ArrayList<>(history.subList(0, 10));
+        assertEquals(fullStatus(shorter), hasher.status("address", shorter));
+        assertEquals(fullStatus(new ArrayList<TxHashHeightWrapper>()), hasher.status("empty", new ArrayList<TxHashHeightWrapper>()));
+    }
+
+    private static String txHash(int i) {
+        return String.format("%064x", i);
+    }
+
+    private static String fullStatus(List<TxHashHeightWrapper> history) throws Exception {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (TxHashHeightWrapper entry : history) {
+            stringBuilder.append(entry.getTxHash()).append(":").append(entry.getHeight()).append(":");
+        }
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(stringBuilder.toString().getBytes(StandardCharsets.UTF_8));
+        return Hex.toHexString(hash);
+    }
+}